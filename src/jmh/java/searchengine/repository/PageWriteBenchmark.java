@@ -0,0 +1,123 @@
+package searchengine.repository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.services.SiteLemmaDictionary;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+// Запись страницы с её леммами и индексом в Postgres, одна операция — одна страница, результат — страниц в секунду.
+// legacy повторяет запросы до пакетной записи (поиск, вставка или обновление каждой леммы и отдельная вставка
+// каждой строки индекса), upsert — путь savePageAndLemmas, dictionary — путь обхода через SiteLemmaDictionary.
+// Нужна база со схемой приложения: BENCHMARK_JDBC_URL, BENCHMARK_JDBC_USER, BENCHMARK_JDBC_PASSWORD,
+// по умолчанию как в application.yaml. Бенчмарк создаёт свой неактивный сайт и удаляет его в конце
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PageWriteBenchmark {
+    private static final int PAGES = 200;
+    private static final int LEMMAS_PER_PAGE = 300;
+    private static final int VOCABULARY = 20_000;
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private IndexBatchRepository indexBatchRepository;
+    private SiteLemmaDictionary lemmaDictionary;
+    private long siteId;
+    private List<Map<String, Integer>> pages;
+    private int next;
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Одно соединение на всё время замера, как из пула приложения
+        dataSource = new SingleConnectionDataSource(
+                env("BENCHMARK_JDBC_URL", "jdbc:postgresql://localhost:5432/search_engine?reWriteBatchedInserts=true"),
+                env("BENCHMARK_JDBC_USER", "postgres"), env("BENCHMARK_JDBC_PASSWORD", "mySecret123"), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        indexBatchRepository = new IndexBatchRepository(jdbcTemplate);
+        siteId = jdbcTemplate.queryForObject("INSERT INTO site (status, status_time, url, name, active) " +
+                        "VALUES ('INDEXING', ?, ?, 'benchmark', false) RETURNING id", Long.class,
+                Timestamp.valueOf(LocalDateTime.now()), "http://benchmark.invalid/" + System.nanoTime() + "/");
+        lemmaDictionary = new SiteLemmaDictionary(siteId, indexBatchRepository);
+        // Частоты лемм как в тексте: немногие встречаются почти везде, большинство редко
+        Random random = new Random(42);
+        pages = new ArrayList<>(PAGES);
+        for (int p = 0; p < PAGES; p++) {
+            Map<String, Integer> lemmas = new HashMap<>();
+            while (lemmas.size() < LEMMAS_PER_PAGE) {
+                int word = (int) Math.min(VOCABULARY - 1, Math.abs(random.nextGaussian()) * VOCABULARY / 4);
+                lemmas.merge("лемма" + word, 1 + random.nextInt(5), Integer::sum);
+            }
+            pages.add(lemmas);
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        lemmaDictionary.flush();
+        jdbcTemplate.update("DELETE FROM page_index WHERE page_id IN (SELECT id FROM page WHERE site_id = ?)", siteId);
+        jdbcTemplate.update("DELETE FROM page WHERE site_id = ?", siteId);
+        jdbcTemplate.update("DELETE FROM lemma WHERE site_id = ?", siteId);
+        jdbcTemplate.update("DELETE FROM site WHERE id = ?", siteId);
+        dataSource.destroy();
+    }
+    @Benchmark
+    public void legacy() {
+        Map<String, Integer> lemmas = nextPage();
+        transactionTemplate.executeWithoutResult(status -> {
+            long pageId = insertPage(lemmas);
+            for (Map.Entry<String, Integer> entry : lemmas.entrySet()) {
+                List<Long> found = jdbcTemplate.queryForList("SELECT id FROM lemma WHERE lemma = ? AND site_id = ?",
+                        Long.class, entry.getKey(), siteId);
+                long lemmaId;
+                if (found.isEmpty()) {
+                    lemmaId = jdbcTemplate.queryForObject("INSERT INTO lemma (site_id, lemma, frequency) VALUES (?, ?, ?) " +
+                            "RETURNING id", Long.class, siteId, entry.getKey(), entry.getValue());
+                } else {
+                    lemmaId = found.get(0);
+                    jdbcTemplate.update("UPDATE lemma SET frequency = frequency + ? WHERE id = ?", entry.getValue(), lemmaId);
+                }
+                jdbcTemplate.update("INSERT INTO page_index (page_id, lemma_id, rank) VALUES (?, ?, ?)",
+                        pageId, lemmaId, entry.getValue().floatValue());
+            }
+        });
+    }
+    @Benchmark
+    public void upsert() {
+        Map<String, Integer> lemmas = nextPage();
+        transactionTemplate.executeWithoutResult(status -> {
+            long pageId = insertPage(lemmas);
+            Map<String, Long> lemmaIds = indexBatchRepository.upsertLemmas(siteId, lemmas);
+            Map<Long, Integer> ranks = new HashMap<>(lemmaIds.size() * 2);
+            lemmaIds.forEach((lemma, id) -> ranks.put(id, lemmas.get(lemma)));
+            indexBatchRepository.insertPageIndices(pageId, ranks);
+        });
+    }
+    @Benchmark
+    public void dictionary() {
+        Map<String, Integer> lemmas = nextPage();
+        Map<Long, Integer> ranks = lemmaDictionary.resolve(lemmas);
+        transactionTemplate.executeWithoutResult(status -> {
+            long pageId = insertPage(lemmas);
+            indexBatchRepository.insertPageIndices(pageId, ranks);
+        });
+        lemmaDictionary.addFrequencies(ranks, 1);
+    }
+    private Map<String, Integer> nextPage() {
+        return pages.get(next++ % PAGES);
+    }
+    private long insertPage(Map<String, Integer> lemmas) {
+        int tokens = lemmas.values().stream().mapToInt(Integer::intValue).sum();
+        return jdbcTemplate.queryForObject("INSERT INTO page (site_id, path, code, token_count) VALUES (?, ?, 200, ?) " +
+                "RETURNING id", Long.class, siteId, "/page/" + next + "/" + System.nanoTime(), tokens);
+    }
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isBlank() ? value : defaultValue;
+    }
+}
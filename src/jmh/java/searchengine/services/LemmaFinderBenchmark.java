@@ -0,0 +1,58 @@
+package searchengine.services;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import searchengine.config.LemmaConfig;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+// Токенизация текста для лемматизации: прежний конвейер toLowerCase -> replaceAll -> split против однопроходного
+// collectLemmas. Текст — около 200 КБ русских словоформ со знаками препинания, заглавными буквами и цифрами.
+// Аллокации на операцию показывает профилировщик gc (включён в профиле benchmark)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LemmaFinderBenchmark {
+    private static final String[] WORDS = {
+            "поисковый", "движок", "индексирует", "страницы", "сайтов", "сохраняет", "леммы", "в", "базе",
+            "данных", "и", "выдаёт", "результаты", "поиска", "с", "учётом", "релевантности", "Ёлка", "ЛЕС",
+            "обход", "ссылок", "занимает", "время", "но", "не", "блокирует", "запросы", "пользователей"
+    };
+    private static final String[] SEPARATORS = {" ", " ", " ", ", ", ". ", " — ", "\n", " (2024) "};
+    private static final int TEXT_LENGTH = 200_000;
+    private LemmaFinder lemmaFinder;
+    private String text;
+    @Setup
+    public void setUp() throws IOException {
+        lemmaFinder = new LemmaFinder(new LemmaConfig());
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(TEXT_LENGTH + 64);
+        while (builder.length() < TEXT_LENGTH) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        text = builder.toString();
+        // Кэш словоформ прогрет, как на длинном обходе
+        lemmaFinder.collectLemmas(text);
+    }
+    // Токенизация до перехода на один проход, без обращений к кэшу
+    @Benchmark
+    public void legacyTokenize(Blackhole blackhole) {
+        String[] words = text.toLowerCase(Locale.ROOT)
+                .replaceAll("[^а-яё\\s]", " ")
+                .trim()
+                .split("\\s+");
+        for (String word : words) {
+            if (!word.isBlank() && word.length() > 1) {
+                blackhole.consume(word);
+            }
+        }
+    }
+    // Токенизация вместе с поиском в кэше и подсчётом лемм
+    @Benchmark
+    public Object collectLemmas() {
+        return lemmaFinder.collectLemmas(text);
+    }
+}
@@ -0,0 +1,17 @@
+package searchengine.config;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+@Component
+@ConfigurationProperties(prefix = "content-store")
+@Getter
+@Setter
+public class ContentStoreConfig {
+    // database - колонка page_content, segments - сжатые сегментные файлы на локальном диске
+    private String type = "database";
+    private String directory = "data/content";
+    private long segmentSize = 256L * 1024 * 1024;
+    // доля живых данных, ниже которой сегмент переписывается при компактизации
+    private double compactionThreshold = 0.5;
+}
@@ -3,6 +3,7 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import java.util.List;
 @Component
 @ConfigurationProperties(prefix = "crawler")
 @Getter
@@ -10,4 +11,42 @@ import org.springframework.stereotype.Component;
 public class CrawlerConfig {
     private String userAgent;
     private String referrer;
+    // Вежливость по отношению к хосту: запросов в секунду и одновременных соединений
+    private double requestsPerSecond = 2.0;
+    private int maxConnectionsPerHost = 2;
+    private int connectTimeoutMs = 10_000;
+    private int readTimeoutMs = 30_000;
+    // Предел на весь обмен с сервером, включая получение тела
+    private int fetchTimeoutMs = 60_000;
+    private int maxBodySize = 10 * 1024 * 1024;
+    // Размеры пулов стадий конвейера и ёмкость очереди перед каждой стадией
+    private int parseWorkers = 2;
+    private int lemmatizeWorkers = Runtime.getRuntime().availableProcessors();
+    private int persistWorkers = 4;
+    private int stageQueueCapacity = 100;
+    // Очередь обхода: сколько адресов держать в памяти, куда выгружать остальные и сколько страниц сайта обрабатывать одновременно
+    private int frontierMemoryUrls = 10_000;
+    private String frontierDirectory = "data/frontier";
+    private int maxPagesInFlight = 32;
+    // Общий лимит одновременных загрузок на все сайты; лимиты сайта по числу страниц и глубине, 0 — без ограничения
+    private int maxTotalFetches = 64;
+    private int maxPagesPerSite = 0;
+    private int maxDepth = 0;
+    // Журнал обхода для продолжения после остановки дописывается на диск с таким интервалом
+    private int checkpointIntervalMs = 10_000;
+    // Посев обхода: правила robots.txt, адреса из sitemap и предел Crawl-delay, которому следует обход
+    private boolean respectRobotsTxt = true;
+    private boolean useSitemaps = true;
+    private int maxSitemaps = 1000;
+    private double maxCrawlDelaySeconds = 30;
+    // Предел одного sitemap: 50 МБ распакованного XML по протоколу sitemaps.org и срок его загрузки
+    private long maxSitemapSize = 50L * 1024 * 1024;
+    private int sitemapTimeoutMs = 120_000;
+    // Адреса с этими расширениями не загружаются; пропущенные по заголовкам адреса не повторяются столько дней
+    private List<String> skippedExtensions = List.of("pdf", "jpg", "jpeg", "png", "gif", "webp", "svg", "ico", "bmp",
+            "tif", "tiff", "mp3", "mp4", "avi", "mov", "webm", "zip", "rar", "7z", "gz", "tar", "exe", "msi", "dmg",
+            "doc", "docx", "xls", "xlsx", "ppt", "pptx", "woff", "woff2", "ttf", "css", "js");
+    private int skippedUrlTtlDays = 30;
+    // Страницы, SimHash которых отличается от уже сохранённой не больше чем в стольких битах, сохраняются как её копии; -1 отключает
+    private int nearDuplicateDistance = 3;
 }
@@ -0,0 +1,13 @@
+package searchengine.config;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+@Component
+@ConfigurationProperties(prefix = "lemma")
+@Getter
+@Setter
+public class LemmaConfig {
+    // Сколько словоформ помнит кэш словоформа -> лемма, 0 отключает кэш
+    private int cacheSize = 100_000;
+}
@@ -0,0 +1,21 @@
+package searchengine.config;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+@Component
+@ConfigurationProperties(prefix = "search")
+@Getter
+@Setter
+public class SearchConfig {
+    // database - релевантность считает Postgres, memory - индекс в памяти приложения
+    private String engine = "database";
+    // all - страница должна содержать все слова запроса, any - хотя бы одно (в индексе в памяти с отсечением WAND)
+    private String mode = "all";
+    // Кэш результатов: число запросов и сколько лучших страниц запроса в нём хранится для следующих страниц выдачи
+    private int cacheSize = 1000;
+    private int cacheDepth = 200;
+    // Параметры BM25: насыщение частоты слова и сила нормировки по длине страницы
+    private double bm25K1 = 1.2;
+    private double bm25B = 0.75;
+}
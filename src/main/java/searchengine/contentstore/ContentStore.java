@@ -0,0 +1,11 @@
+package searchengine.contentstore;
+import java.util.Collection;
+import java.util.Map;
+public interface ContentStore {
+    void save(long pageId, String html, String text);
+    Map<Long, PageBody> load(Collection<Long> pageIds);
+    void delete(Collection<Long> pageIds);
+    // освобождает место, занятое удалёнными и перезаписанными страницами
+    default void compact() {
+    }
+}
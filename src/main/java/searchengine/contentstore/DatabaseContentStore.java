@@ -0,0 +1,37 @@
+package searchengine.contentstore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import searchengine.model.PageContent;
+import searchengine.repository.PageContentRepository;
+import searchengine.repository.PageRepository;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+@Component
+@ConditionalOnProperty(name = "content-store.type", havingValue = "database", matchIfMissing = true)
+@RequiredArgsConstructor
+public class DatabaseContentStore implements ContentStore {
+    private final PageRepository pageRepository;
+    private final PageContentRepository pageContentRepository;
+    @Override
+    public void save(long pageId, String html, String text) {
+        PageContent pageContent = new PageContent();
+        pageContent.setPage(pageRepository.getReferenceById(pageId));
+        pageContent.setContent(html);
+        pageContent.setPlainText(text);
+        pageContentRepository.save(pageContent);
+    }
+    @Override
+    public Map<Long, PageBody> load(Collection<Long> pageIds) {
+        Map<Long, PageBody> bodies = new HashMap<>();
+        for (PageContent pageContent : pageContentRepository.findAllById(pageIds)) {
+            bodies.put(pageContent.getPageId(), new PageBody(pageContent.getContent(), pageContent.getPlainText()));
+        }
+        return bodies;
+    }
+    @Override
+    public void delete(Collection<Long> pageIds) {
+        // строки page_content удаляются каскадом вместе со страницами
+    }
+}
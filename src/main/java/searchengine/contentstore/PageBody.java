@@ -0,0 +1,9 @@
+package searchengine.contentstore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+@Getter
+@AllArgsConstructor
+public class PageBody {
+    private final String html;
+    private final String text;
+}
@@ -0,0 +1,371 @@
+package searchengine.contentstore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import searchengine.config.ContentStoreConfig;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+// Тела страниц в сжатых (Deflate) сегментных файлах, только дозапись.
+// Запись: pageId (8), длина до сжатия (4), длина после сжатия (4, -1 у метки удаления), данные.
+// Закрытые сегменты читаются через отображение в память, положение записей держится в памяти
+// и восстанавливается сканированием файлов при старте.
+@Component
+@ConditionalOnProperty(name = "content-store.type", havingValue = "segments")
+@Slf4j
+public class SegmentFileContentStore implements ContentStore {
+    private static final int HEADER_SIZE = 16;
+    private static final int TOMBSTONE = -1;
+    private static final long MAX_MAPPED_SEGMENT = Integer.MAX_VALUE;
+    private final Path directory;
+    private final long segmentSize;
+    private final double compactionThreshold;
+    private final Map<Long, Long> locations = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private Segment active;
+
+    public SegmentFileContentStore(ContentStoreConfig config) throws IOException {
+        this.directory = Paths.get(config.getDirectory());
+        this.segmentSize = Math.min(config.getSegmentSize(), MAX_MAPPED_SEGMENT);
+        this.compactionThreshold = config.getCompactionThreshold();
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().matches("segment-\\d+\\.dat"))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            Segment segment = new Segment(segmentId(file), file);
+            segments.put(segment.id, segment);
+            scan(segment);
+        }
+        if (segments.isEmpty()) {
+            active = openSegment(1);
+        } else {
+            active = segments.lastEntry().getValue();
+            segments.headMap(active.id).values().forEach(Segment::seal);
+        }
+        log.info("Segment content store opened at {}: {} segments, {} pages", directory, segments.size(), locations.size());
+    }
+
+    // Сегменты не участвуют в транзакции базы: запись дописывается только после фиксации страницы,
+    // иначе страница из откатившейся транзакции осталась бы живой записью, которую сжатие не освободит
+    @Override
+    public void save(long pageId, String html, String text) {
+        byte[] record = encode(pageId, html, text);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    write(pageId, record);
+                }
+            });
+        } else {
+            write(pageId, record);
+        }
+    }
+
+    private synchronized void write(long pageId, byte[] record) {
+        try {
+            append(pageId, record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать страницу " + pageId + " в " + directory, e);
+        }
+    }
+
+    @Override
+    public Map<Long, PageBody> load(Collection<Long> pageIds) {
+        Map<Long, PageBody> bodies = new HashMap<>();
+        segmentsLock.readLock().lock();
+        try {
+            for (Long pageId : pageIds) {
+                Long location = locations.get(pageId);
+                if (location != null) {
+                    bodies.put(pageId, decode(readRecord(location)));
+                }
+            }
+        } catch (IOException | DataFormatException e) {
+            throw new IllegalStateException("Не удалось прочитать страницы из " + directory, e);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+        return bodies;
+    }
+
+    @Override
+    public synchronized void delete(Collection<Long> pageIds) {
+        try {
+            for (Long pageId : pageIds) {
+                if (locations.containsKey(pageId)) {
+                    append(pageId, header(pageId, 0, TOMBSTONE).array());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось удалить страницы из " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void compact() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || segment.liveBytes.get() >= segment.size * compactionThreshold) {
+                continue;
+            }
+            try {
+                long before = segment.size;
+                rewriteLiveRecords(segment);
+                segmentsLock.writeLock().lock();
+                try {
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                    Files.delete(segment.path);
+                } finally {
+                    segmentsLock.writeLock().unlock();
+                }
+                log.info("Compacted content segment {}: {} bytes reclaimed", segment.path.getFileName(), before);
+            } catch (IOException e) {
+                log.error("Compaction of {} failed: {}", segment.path, e.getMessage(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.force(false);
+            segment.channel.close();
+        }
+    }
+
+    private void append(long pageId, byte[] record) throws IOException {
+        if (active.size > 0 && active.size + record.length > segmentSize) {
+            active.channel.force(false);
+            active.seal();
+            active = openSegment(active.id + 1);
+        }
+        long offset = active.size;
+        active.channel.write(ByteBuffer.wrap(record), offset);
+        active.size += record.length;
+        boolean tombstone = record.length == HEADER_SIZE && ByteBuffer.wrap(record).getInt(12) == TOMBSTONE;
+        Long previous = tombstone ? locations.remove(pageId) : locations.put(pageId, location(active.id, offset));
+        if (!tombstone) {
+            active.liveBytes.addAndGet(record.length);
+        }
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    // Переносит в активный сегмент записи, на которые ещё ссылается индекс. Метки удаления тоже
+    // переносятся, пока существуют более старые сегменты: иначе удалённая страница воскресла бы при старте
+    private void rewriteLiveRecords(Segment segment) throws IOException {
+        boolean olderSegmentsExist = segments.firstKey() < segment.id;
+        long position = 0;
+        while (position + HEADER_SIZE <= segment.size) {
+            ByteBuffer header = segment.read(position, HEADER_SIZE);
+            long pageId = header.getLong(0);
+            int compressedLength = header.getInt(12);
+            int recordLength = HEADER_SIZE + Math.max(compressedLength, 0);
+            long current = location(segment.id, position);
+            if (compressedLength == TOMBSTONE) {
+                if (olderSegmentsExist && !locations.containsKey(pageId)) {
+                    long offset = active.size;
+                    active.channel.write(header, offset);
+                    active.size += HEADER_SIZE;
+                }
+            } else if (Objects.equals(locations.get(pageId), current)) {
+                ByteBuffer record = segment.read(position, recordLength);
+                if (active.size > 0 && active.size + recordLength > segmentSize) {
+                    active.channel.force(false);
+                    active.seal();
+                    active = openSegment(active.id + 1);
+                }
+                long offset = active.size;
+                active.channel.write(record, offset);
+                active.size += recordLength;
+                active.liveBytes.addAndGet(recordLength);
+                locations.put(pageId, location(active.id, offset));
+            }
+            position += recordLength;
+        }
+        active.channel.force(false);
+    }
+
+    private void scan(Segment segment) throws IOException {
+        long position = 0;
+        while (position + HEADER_SIZE <= segment.size) {
+            ByteBuffer header = segment.read(position, HEADER_SIZE);
+            long pageId = header.getLong(0);
+            int compressedLength = header.getInt(12);
+            Long previous;
+            if (compressedLength == TOMBSTONE) {
+                previous = locations.remove(pageId);
+                position += HEADER_SIZE;
+            } else if (position + HEADER_SIZE + compressedLength > segment.size) {
+                break;
+            } else {
+                previous = locations.put(pageId, location(segment.id, position));
+                segment.liveBytes.addAndGet(HEADER_SIZE + compressedLength);
+                position += HEADER_SIZE + compressedLength;
+            }
+            if (previous != null) {
+                release(previous);
+            }
+        }
+        if (position < segment.size) {
+            log.warn("Truncating incomplete record at {} in {}", position, segment.path);
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+    }
+
+    private void release(long location) {
+        Segment segment = segments.get(segmentOf(location));
+        if (segment == null) {
+            return;
+        }
+        try {
+            int compressedLength = segment.read(offsetOf(location), HEADER_SIZE).getInt(12);
+            segment.liveBytes.addAndGet(-(HEADER_SIZE + compressedLength));
+        } catch (IOException e) {
+            log.warn("Cannot read record header in {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private ByteBuffer readRecord(long location) throws IOException {
+        Segment segment = segments.get(segmentOf(location));
+        long offset = offsetOf(location);
+        int compressedLength = segment.read(offset, HEADER_SIZE).getInt(12);
+        return segment.read(offset, HEADER_SIZE + compressedLength);
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Segment segment = new Segment(id, directory.resolve(String.format("segment-%06d.dat", id)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static byte[] encode(long pageId, String html, String text) {
+        byte[] htmlBytes = html.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer raw = ByteBuffer.allocate(4 + htmlBytes.length + textBytes.length);
+        raw.putInt(htmlBytes.length).put(htmlBytes).put(textBytes);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.capacity() / 3 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + compressed.size());
+        record.put(header(pageId, raw.capacity(), compressed.size())).put(compressed.toByteArray());
+        return record.array();
+    }
+
+    private static PageBody decode(ByteBuffer record) throws DataFormatException {
+        int rawLength = record.getInt(8);
+        int compressedLength = record.getInt(12);
+        byte[] compressed = new byte[compressedLength];
+        record.position(HEADER_SIZE);
+        record.get(compressed);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] raw = new byte[rawLength];
+        int inflated = 0;
+        while (inflated < rawLength && !inflater.finished()) {
+            inflated += inflater.inflate(raw, inflated, rawLength - inflated);
+        }
+        inflater.end();
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        int htmlLength = buffer.getInt();
+        String html = new String(raw, 4, htmlLength, StandardCharsets.UTF_8);
+        String text = new String(raw, 4 + htmlLength, rawLength - 4 - htmlLength, StandardCharsets.UTF_8);
+        return new PageBody(html, text);
+    }
+
+    private static ByteBuffer header(long pageId, int rawLength, int compressedLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(pageId).putInt(rawLength).putInt(compressedLength).flip();
+        return header;
+    }
+
+    private static long location(int segmentId, long offset) {
+        return ((long) segmentId << 40) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 40);
+    }
+
+    private static long offsetOf(long location) {
+        return location & ((1L << 40) - 1);
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile long size;
+        private volatile MappedByteBuffer mapped;
+        private Segment(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+        // Закрытый сегмент больше не меняется, его можно читать через отображение в память
+        private void seal() {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException e) {
+                log.warn("Cannot map segment {}, falling back to positional reads: {}", path, e.getMessage());
+            }
+        }
+        private ByteBuffer read(long offset, int length) throws IOException {
+            MappedByteBuffer buffer = mapped;
+            if (buffer != null) {
+                ByteBuffer slice = buffer.duplicate();
+                slice.position((int) offset).limit((int) offset + length);
+                return slice.slice();
+            }
+            ByteBuffer result = ByteBuffer.allocate(length);
+            while (result.hasRemaining()) {
+                if (channel.read(result, offset + result.position()) < 0) {
+                    throw new IOException("Unexpected end of segment " + path);
+                }
+            }
+            return result.flip();
+        }
+    }
+}
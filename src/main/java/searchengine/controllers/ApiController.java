@@ -2,6 +2,8 @@ package searchengine.controllers;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
+import searchengine.dto.crawler.CrawlerStatisticsResponse;
+import searchengine.dto.search.SearchCacheStatistics;
 import searchengine.dto.search.SearchResponse;
 import searchengine.dto.statistics.IndexingResponse;
 import searchengine.dto.statistics.StatisticsResponse;
@@ -21,13 +23,17 @@ public class ApiController {
         return statisticsService.getStatistics();
     }
     @GetMapping("/startIndexing")
-    public IndexingResponse startIndexing() {
-        return indexingService.startIndexing();
+    public IndexingResponse startIndexing(@RequestParam(name = "resume", defaultValue = "false") boolean resume) {
+        return indexingService.startIndexing(resume);
     }
     @GetMapping("/stopIndexing")
     public IndexingResponse stopIndexing() {
         return indexingService.stopIndexing();
     }
+    @GetMapping("/crawler")
+    public CrawlerStatisticsResponse crawler() {
+        return indexingService.getCrawlerStatistics();
+    }
     @PostMapping("/indexPage")
     public IndexingResponse indexPage(@RequestParam String url) {
         return indexingService.indexPage(url);
@@ -40,4 +46,8 @@ public class ApiController {
                                                  ) {
         return searchService.search(query, site, offset, limit);
     }
+    @GetMapping("/searchCache")
+    public SearchCacheStatistics searchCache() {
+        return searchService.getCacheStatistics();
+    }
 }
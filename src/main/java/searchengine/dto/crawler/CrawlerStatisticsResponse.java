@@ -0,0 +1,13 @@
+package searchengine.dto.crawler;
+import lombok.Data;
+import java.util.List;
+@Data
+public class CrawlerStatisticsResponse {
+    private boolean result;
+    private boolean indexing;
+    private List<StageStatistics> stages;
+    private int fetchLimit;
+    private int fetchesInUse;
+    private List<SiteAllocation> sites;
+    private LemmaCacheStatistics lemmaCache;
+}
@@ -0,0 +1,10 @@
+package searchengine.dto.crawler;
+import lombok.Data;
+@Data
+public class LemmaCacheStatistics {
+    private int size;
+    private int capacity;
+    private long hits;
+    private long misses;
+    private double hitRate;
+}
@@ -0,0 +1,14 @@
+package searchengine.dto.crawler;
+import lombok.Data;
+@Data
+public class SiteAllocation {
+    private String url;
+    private int fetchesInFlight;
+    private int fetchesWaiting;
+    private int pagesInFlight;
+    private int maxPagesInFlight;
+    private long pagesDispatched;
+    private int maxPages;
+    private int maxDepth;
+    private long queued;
+}
@@ -0,0 +1,13 @@
+package searchengine.dto.crawler;
+import lombok.Data;
+@Data
+public class StageStatistics {
+    private String name;
+    private int workers;
+    private int active;
+    private int queued;
+    private int queueCapacity;
+    private long completed;
+    private double avgTimeMs;
+    private double throughput;
+}
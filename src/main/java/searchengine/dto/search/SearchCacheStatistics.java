@@ -0,0 +1,12 @@
+package searchengine.dto.search;
+import lombok.Data;
+@Data
+public class SearchCacheStatistics {
+    private boolean result = true;
+    private int size;
+    private int capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private double hitRate;
+}
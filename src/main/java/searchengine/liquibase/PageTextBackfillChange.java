@@ -0,0 +1,65 @@
+package searchengine.liquibase;
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import searchengine.siteparser.ParsedPage;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+// Заполняет page.title и page.plain_text для страниц, проиндексированных до появления этих колонок
+public class PageTextBackfillChange implements CustomTaskChange {
+    private static final int BATCH_SIZE = 200;
+    private int updated;
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT p.id, p.content, s.url FROM page p JOIN site s ON s.id = p.site_id " +
+                        "WHERE p.id > ? ORDER BY p.id LIMIT " + BATCH_SIZE);
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE page SET title = ?, plain_text = ? WHERE id = ?")) {
+            long lastId = 0;
+            int batch;
+            do {
+                batch = 0;
+                select.setLong(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getLong("id");
+                        String content = rs.getString("content");
+                        ParsedPage parsedPage = ParsedPage.parse(content != null ? content : "", rs.getString("url"));
+                        update.setString(1, parsedPage.getTitle());
+                        update.setString(2, parsedPage.getText());
+                        update.setLong(3, lastId);
+                        update.addBatch();
+                        batch++;
+                    }
+                }
+                if (batch > 0) {
+                    update.executeBatch();
+                    updated += batch;
+                }
+            } while (batch == BATCH_SIZE);
+        } catch (SQLException e) {
+            throw new CustomChangeException("Не удалось заполнить заголовки и текст страниц", e);
+        }
+    }
+    @Override
+    public String getConfirmationMessage() {
+        return "Backfilled title and plain_text for " + updated + " pages";
+    }
+    @Override
+    public void setUp() {
+    }
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
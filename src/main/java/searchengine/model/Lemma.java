@@ -18,6 +18,9 @@ public class Lemma {
     private String lemma;
     @Column(nullable = false)
     private int frequency;
+    // Число страниц сайта с этой леммой
+    @Column(name = "doc_count", nullable = false)
+    private int docCount;
 
     @Override
     public boolean equals(Object o) {
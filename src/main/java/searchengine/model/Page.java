@@ -18,8 +18,20 @@ public class Page {
     @Column(columnDefinition = "TEXT", nullable = false)
     private String path;
     private int code;
-    @Column(columnDefinition = "TEXT", nullable = false)
-    private String content;
+    @Column(columnDefinition = "TEXT")
+    private String title;
+    private String etag;
+    @Column(name = "last_modified")
+    private String lastModified;
+    @Column(name = "content_hash")
+    private Long contentHash;
+    private Long simhash;
+    // Страница-копия: индекс не хранится, в поиске её представляет каноническая страница
+    @Column(name = "canonical_page_id")
+    private Long canonicalPageId;
+    // Длина страницы для BM25: сумма рангов её лемм
+    @Column(name = "token_count", nullable = false)
+    private int tokenCount;
     @OneToMany(mappedBy = "page", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<PageIndex> indices = new ArrayList<>();
 }
@@ -0,0 +1,22 @@
+package searchengine.model;
+import lombok.Getter;
+import lombok.Setter;
+import javax.persistence.*;
+// HTML и текст страницы хранятся отдельно, чтобы обычная загрузка Page их не читала
+@Entity
+@Table(name = "page_content")
+@Getter
+@Setter
+public class PageContent {
+    @Id
+    @Column(name = "page_id")
+    private Long pageId;
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "page_id")
+    private Page page;
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+    @Column(name = "plain_text", columnDefinition = "TEXT")
+    private String plainText;
+}
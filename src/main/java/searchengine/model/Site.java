@@ -23,6 +23,9 @@ public class Site {
     private String url;
     @Column(columnDefinition = "VARCHAR(255)", nullable = false)
     private String name;
+    // false - теневое поколение, которое ещё строится, или старое, ожидающее удаления
+    @Column(nullable = false)
+    private boolean active;
     @OneToMany(mappedBy = "site", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Page> pages = new ArrayList<>();
     @OneToMany(mappedBy = "site", cascade = CascadeType.ALL, orphanRemoval = true)
@@ -0,0 +1,204 @@
+package searchengine.repository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import searchengine.siteparser.PageVersion;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+@Repository
+@RequiredArgsConstructor
+public class IndexBatchRepository {
+    private static final int CHUNK_SIZE = 500;
+    private final JdbcTemplate jdbcTemplate;
+
+    // Леммы сортируются, чтобы параллельные транзакции брали блокировки строк в одном порядке
+    public Map<String, Long> upsertLemmas(long siteId, Map<String, Integer> frequencies) {
+        Map<String, Long> ids = new HashMap<>(frequencies.size() * 2);
+        List<String> lemmas = new ArrayList<>(frequencies.keySet());
+        Collections.sort(lemmas);
+        for (int from = 0; from < lemmas.size(); from += CHUNK_SIZE) {
+            List<String> chunk = lemmas.subList(from, Math.min(from + CHUNK_SIZE, lemmas.size()));
+            StringBuilder sql = new StringBuilder("INSERT INTO lemma (site_id, lemma, frequency, doc_count) VALUES ");
+            Object[] args = new Object[chunk.size() * 3];
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "(?, ?, ?, 1)" : ", (?, ?, ?, 1)");
+                args[i * 3] = siteId;
+                args[i * 3 + 1] = chunk.get(i);
+                args[i * 3 + 2] = frequencies.get(chunk.get(i));
+            }
+            sql.append(" ON CONFLICT (site_id, lemma) DO UPDATE SET frequency = lemma.frequency + excluded.frequency,")
+                    .append(" doc_count = lemma.doc_count + 1")
+                    .append(" RETURNING id, lemma");
+            jdbcTemplate.query(sql.toString(), rs -> {
+                ids.put(rs.getString("lemma"), rs.getLong("id"));
+            }, args);
+        }
+        return ids;
+    }
+
+    public Map<String, Long> findLemmaIds(long siteId) {
+        Map<String, Long> ids = new HashMap<>();
+        jdbcTemplate.query("SELECT id, lemma FROM lemma WHERE site_id = ?", rs -> {
+            ids.put(rs.getString("lemma"), rs.getLong("id"));
+        }, siteId);
+        return ids;
+    }
+
+    // Вставляет недостающие леммы с нулевой частотой, частоты потом добавляются пакетно
+    public Map<String, Long> registerLemmas(long siteId, Collection<String> lemmas) {
+        String[] sorted = lemmas.toArray(new String[0]);
+        Arrays.sort(sorted);
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("INSERT INTO lemma (site_id, lemma, frequency) " +
+                    "SELECT ?, unnest(?), 0 ON CONFLICT (site_id, lemma) DO NOTHING");
+            ps.setLong(1, siteId);
+            ps.setArray(2, con.createArrayOf("varchar", sorted));
+            return ps;
+        });
+        Map<String, Long> ids = new HashMap<>(sorted.length * 2);
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT id, lemma FROM lemma WHERE site_id = ? AND lemma = ANY (?)");
+            ps.setLong(1, siteId);
+            ps.setArray(2, con.createArrayOf("varchar", sorted));
+            return ps;
+        }, rs -> {
+            ids.put(rs.getString("lemma"), rs.getLong("id"));
+        });
+        return ids;
+    }
+
+    // docCountDeltas — изменение числа страниц с леммой, для id без записи считается нулём
+    public void addLemmaFrequencies(Map<Long, Integer> deltas, Map<Long, Integer> docCountDeltas) {
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        new TreeMap<>(deltas).forEach((id, delta) -> rows.add(new Object[]{delta, docCountDeltas.getOrDefault(id, 0), id}));
+        for (int from = 0; from < rows.size(); from += CHUNK_SIZE) {
+            jdbcTemplate.batchUpdate("UPDATE lemma SET frequency = frequency + ?, doc_count = doc_count + ? WHERE id = ?",
+                    rows.subList(from, Math.min(from + CHUNK_SIZE, rows.size())));
+        }
+    }
+
+    public void insertPageIndices(long pageId, Map<Long, Integer> ranksByLemmaId) {
+        List<Object[]> rows = new ArrayList<>(ranksByLemmaId.size());
+        for (Map.Entry<Long, Integer> entry : ranksByLemmaId.entrySet()) {
+            rows.add(new Object[]{pageId, entry.getKey(), entry.getValue().floatValue()});
+        }
+        for (int from = 0; from < rows.size(); from += CHUNK_SIZE) {
+            jdbcTemplate.batchUpdate("INSERT INTO page_index (page_id, lemma_id, rank) VALUES (?, ?, ?)",
+                    rows.subList(from, Math.min(from + CHUNK_SIZE, rows.size())));
+        }
+    }
+
+    public List<Long> deletePageIndices(long pageId) {
+        jdbcTemplate.update("UPDATE lemma l SET frequency = l.frequency - CAST(pi.rank AS INT), doc_count = l.doc_count - 1 " +
+                "FROM page_index pi WHERE pi.lemma_id = l.id AND pi.page_id = ?", pageId);
+        List<Long> lemmaIds = jdbcTemplate.queryForList(
+                "DELETE FROM page_index WHERE page_id = ? RETURNING lemma_id", Long.class, pageId);
+        if (lemmaIds.isEmpty()) {
+            return lemmaIds;
+        }
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM lemma WHERE id = ANY (?) AND frequency <= 0");
+            ps.setArray(1, con.createArrayOf("bigint", lemmaIds.toArray()));
+            return ps;
+        });
+        return lemmaIds;
+    }
+
+    // Частоты лемм не трогает: при обходе их корректирует словарь сайта
+    public Map<Long, Integer> deletePageIndicesReturningRanks(long pageId) {
+        Map<Long, Integer> ranks = new HashMap<>();
+        jdbcTemplate.query("DELETE FROM page_index WHERE page_id = ? RETURNING lemma_id, rank", rs -> {
+            ranks.put(rs.getLong("lemma_id"), Math.round(rs.getFloat("rank")));
+        }, pageId);
+        return ranks;
+    }
+
+    // md5(path) попадает в индекс idx_page_site_path_md5, сравнение path отсекает коллизии
+    public PageVersion findPageVersion(long siteId, String path) {
+        List<PageVersion> versions = jdbcTemplate.query("SELECT id, code, etag, last_modified, content_hash, canonical_page_id " +
+                "FROM page WHERE site_id = ? AND md5(path) = md5(?) AND path = ?", (rs, rowNum) -> new PageVersion(
+                rs.getLong("id"), rs.getInt("code"), rs.getString("etag"), rs.getString("last_modified"),
+                rs.getObject("content_hash", Long.class), rs.getObject("canonical_page_id", Long.class)), siteId, path, path);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    // SimHash канонических страниц поколения: путь -> отпечаток, для продолжения прерванного обхода
+    public Map<String, Long> findCanonicalSimHashes(long siteId) {
+        Map<String, Long> simHashes = new HashMap<>();
+        jdbcTemplate.query("SELECT path, simhash FROM page WHERE site_id = ? AND simhash IS NOT NULL " +
+                "AND canonical_page_id IS NULL", rs -> {
+            simHashes.put(rs.getString("path"), rs.getLong("simhash"));
+        }, siteId);
+        return simHashes;
+    }
+
+    // Переносит индекс страницы из другого поколения сайта: недостающие леммы заводятся с нулевой частотой,
+    // id лемм сопоставляются по тексту. Частоты не трогает, их корректирует словарь сайта
+    public Map<Long, Integer> copyPageIndices(long fromPageId, long toPageId, long toSiteId) {
+        jdbcTemplate.update("INSERT INTO lemma (site_id, lemma, frequency) " +
+                "SELECT ?, l.lemma, 0 FROM page_index pi JOIN lemma l ON l.id = pi.lemma_id WHERE pi.page_id = ? " +
+                "ORDER BY l.lemma ON CONFLICT (site_id, lemma) DO NOTHING", toSiteId, fromPageId);
+        Map<Long, Integer> ranks = new HashMap<>();
+        jdbcTemplate.query("INSERT INTO page_index (page_id, lemma_id, rank) " +
+                "SELECT ?, nl.id, pi.rank FROM page_index pi JOIN lemma ol ON ol.id = pi.lemma_id " +
+                "JOIN lemma nl ON nl.site_id = ? AND nl.lemma = ol.lemma WHERE pi.page_id = ? " +
+                "RETURNING lemma_id, rank", rs -> {
+            ranks.put(rs.getLong("lemma_id"), Math.round(rs.getFloat("rank")));
+        }, toPageId, toSiteId, fromPageId);
+        return ranks;
+    }
+
+    public void recordSkippedUrl(String siteUrl, long fingerprint, String url, String reason) {
+        jdbcTemplate.update("INSERT INTO skipped_url (site_url, fingerprint, url, reason, skipped_at) VALUES (?, ?, ?, ?, ?) " +
+                "ON CONFLICT (site_url, fingerprint) DO UPDATE SET reason = excluded.reason, skipped_at = excluded.skipped_at",
+                siteUrl, fingerprint, url, reason.length() > 255 ? reason.substring(0, 255) : reason,
+                Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    public List<Long> findSkippedFingerprints(String siteUrl, LocalDateTime since) {
+        return jdbcTemplate.queryForList("SELECT fingerprint FROM skipped_url WHERE site_url = ? AND skipped_at >= ?",
+                Long.class, siteUrl, Timestamp.valueOf(since));
+    }
+
+    // Число проиндексированных страниц сайта и сумма их длин: алиасы и страницы без лемм в коллекцию BM25 не входят
+    // Число проиндексированных страниц и их суммарная длина по сайтам
+    public Map<Long, long[]> findDocumentStatistics() {
+        Map<Long, long[]> statistics = new HashMap<>();
+        jdbcTemplate.query("SELECT site_id, COUNT(*), COALESCE(SUM(token_count), 0) FROM page " +
+                "WHERE canonical_page_id IS NULL AND token_count > 0 GROUP BY site_id", rs -> {
+            statistics.put(rs.getLong(1), new long[]{rs.getLong(2), rs.getLong(3)});
+        });
+        return statistics;
+    }
+
+    public int deleteUnusedLemmas(long siteId) {
+        return jdbcTemplate.update("DELETE FROM lemma l WHERE l.site_id = ? AND l.frequency <= 0 " +
+                "AND NOT EXISTS (SELECT 1 FROM page_index pi WHERE pi.lemma_id = l.id)", siteId);
+    }
+
+    public List<Long> findPageIds(long siteId, int limit) {
+        return jdbcTemplate.queryForList("SELECT id FROM page WHERE site_id = ? ORDER BY id LIMIT ?", Long.class, siteId, limit);
+    }
+
+    // Удаление поколения сайта небольшими порциями, каждая в своей короткой транзакции
+    public void deletePages(List<Long> pageIds) {
+        Object[] ids = pageIds.toArray();
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM page_index WHERE page_id = ANY (?)");
+            ps.setArray(1, con.createArrayOf("bigint", ids));
+            return ps;
+        });
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM page WHERE id = ANY (?)");
+            ps.setArray(1, con.createArrayOf("bigint", ids));
+            return ps;
+        });
+    }
+
+    public void deleteSite(long siteId) {
+        jdbcTemplate.update("DELETE FROM lemma WHERE site_id = ?", siteId);
+        jdbcTemplate.update("DELETE FROM site WHERE id = ?", siteId);
+    }
+}
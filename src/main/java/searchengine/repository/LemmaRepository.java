@@ -2,9 +2,12 @@ package searchengine.repository;
 import org.springframework.data.jpa.repository.JpaRepository;
 import searchengine.model.Lemma;
 import searchengine.model.Site;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 public interface LemmaRepository extends JpaRepository<Lemma, Long> {
     Optional<Lemma> findByLemmaAndSite(String lemma, Site site);
-    Optional<Lemma> findByLemma (String lemma);
+    List<Lemma> findByLemmaInAndSiteActiveTrue(Collection<String> lemmas);
+    List<Lemma> findByLemmaInAndSite(Collection<String> lemmas, Site site);
     int countBySite(Site site);
 }
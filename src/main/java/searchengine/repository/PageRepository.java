@@ -1,8 +1,11 @@
 package searchengine.repository;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import searchengine.model.Page;
 import searchengine.model.Site;
+import java.util.List;
 import java.util.Optional;
 @Repository
 public interface PageRepository extends JpaRepository<Page, Long> {
@@ -10,4 +13,6 @@ public interface PageRepository extends JpaRepository<Page, Long> {
     boolean existsByPathAndSite(String path, Site site);
     Optional<Page> findByPathAndSite(String path, Site site);
     int countBySite(Site site);
+    @Query("SELECT p.id FROM Page p WHERE p.site = :site")
+    List<Long> findIdsBySite(@Param("site") Site site);
 }
\ No newline at end of file
@@ -2,7 +2,10 @@ package searchengine.repository;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 import searchengine.model.Site;
+import java.util.List;
 @Repository
 public interface SiteRepository extends JpaRepository <Site, Long> {
-    Site findByUrl(String url);
+    Site findByUrlAndActiveTrue(String url);
+    List<Site> findAllByActiveTrue();
+    List<Site> findAllByUrlAndActiveFalse(String url);
 }
@@ -0,0 +1,20 @@
+package searchengine.searchindex;
+// Okapi BM25: idf с добавлением единицы (всегда положителен), насыщение частоты k1 и нормировка длины b.
+// Нормировка длины общая для всех слов запроса на странице, поэтому считается один раз на страницу
+final class Bm25 {
+    private final double k1;
+    private final double b;
+    Bm25(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+    static double idf(long documents, int documentFrequency) {
+        return Math.log(1 + (documents - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+    double lengthNorm(int length, double averageLength) {
+        return k1 * (1 - b + b * length / averageLength);
+    }
+    float score(float termFrequency, double idf, double lengthNorm) {
+        return (float) (idf * termFrequency * (k1 + 1) / (termFrequency + lengthNorm));
+    }
+}
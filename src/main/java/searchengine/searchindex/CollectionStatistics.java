@@ -0,0 +1,61 @@
+package searchengine.searchindex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import searchengine.repository.IndexBatchRepository;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+// Статистика коллекции для BM25 по сайтам: число проиндексированных страниц и их суммарная длина.
+// Читается из базы один раз при старте, пока индексация ещё не запущена, дальше поддерживается путём индексации
+// после фиксации транзакций. Ленивое чтение по сайту гонялось бы с ними: страница, зафиксированная до чтения,
+// но отмеченная после, считалась бы дважды
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CollectionStatistics {
+    private final IndexBatchRepository indexBatchRepository;
+    private final Map<Long, SiteStatistics> sites = new ConcurrentHashMap<>();
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        indexBatchRepository.findDocumentStatistics().forEach((siteId, loaded) ->
+                sites.put(siteId, new SiteStatistics(loaded[0], loaded[1])));
+        log.info("Collection statistics loaded for {} sites", sites.size());
+    }
+    public long documents(long siteId) {
+        return statistics(siteId).documents.get();
+    }
+    // Средняя длина страницы, не меньше 1, чтобы нормировка длины не делила на ноль
+    public double averageLength(long siteId) {
+        SiteStatistics statistics = statistics(siteId);
+        long documents = statistics.documents.get();
+        return documents == 0 ? 1 : Math.max((double) statistics.tokens.get() / documents, 1);
+    }
+    public void pageAdded(long siteId, int tokens) {
+        SiteStatistics statistics = statistics(siteId);
+        statistics.documents.incrementAndGet();
+        statistics.tokens.addAndGet(tokens);
+    }
+    public void pageRemoved(long siteId, int tokens) {
+        SiteStatistics statistics = statistics(siteId);
+        statistics.documents.decrementAndGet();
+        statistics.tokens.addAndGet(-tokens);
+    }
+    public void siteRemoved(long siteId) {
+        sites.remove(siteId);
+    }
+    // Сайта, которого не было при старте, в базе тоже не было: его статистика начинается с нуля
+    private SiteStatistics statistics(long siteId) {
+        return sites.computeIfAbsent(siteId, id -> new SiteStatistics(0, 0));
+    }
+    private static class SiteStatistics {
+        private final AtomicLong documents;
+        private final AtomicLong tokens;
+        SiteStatistics(long documents, long tokens) {
+            this.documents = new AtomicLong(documents);
+            this.tokens = new AtomicLong(tokens);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package searchengine.searchindex;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchConfig;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+@Component
+@ConditionalOnProperty(name = "search.engine", havingValue = "database", matchIfMissing = true)
+@RequiredArgsConstructor
+public class DatabaseSearchIndex implements SearchIndex {
+    // Страница подходит, если содержит не меньше заданного числа слов запроса: у сайта на каждое слово ровно одна лемма.
+    // BM25 считается в базе: статистика сайтов передаётся массивами, длина страницы — page.token_count.
+    // total - число всех подходящих страниц: оконная функция считается до LIMIT
+    private static final String TOP_BM25_SQL = "SELECT pi.page_id, SUM(ln(1 + (s.documents - l.doc_count + 0.5) / (l.doc_count + 0.5)) " +
+            "* pi.rank * (? + 1) / (pi.rank + ? * (1 - ? + ? * p.token_count / s.average_length))) AS relevance, " +
+            "COUNT(*) OVER () AS total " +
+            "FROM page_index pi JOIN lemma l ON l.id = pi.lemma_id JOIN page p ON p.id = pi.page_id " +
+            "JOIN unnest(?::bigint[], ?::float8[], ?::float8[]) AS s(site_id, documents, average_length) ON s.site_id = l.site_id " +
+            "WHERE pi.lemma_id = ANY (?) " +
+            "GROUP BY pi.page_id HAVING COUNT(*) >= ? " +
+            "ORDER BY relevance DESC, pi.page_id LIMIT ?";
+    private final JdbcTemplate jdbcTemplate;
+    private final CollectionStatistics collectionStatistics;
+    private final SearchConfig searchConfig;
+    @Override
+    public SearchHits search(Map<Long, List<Long>> lemmaIdsBySite, int wordCount, int topK) {
+        return findTop(lemmaIdsBySite, wordCount, topK);
+    }
+    // Без отсечения: Postgres оценивает все страницы хотя бы с одним словом, итог точный, но дороже пересечения
+    @Override
+    public SearchHits searchAny(Map<Long, List<Long>> lemmaIdsBySite, int topK) {
+        return findTop(lemmaIdsBySite, 1, topK);
+    }
+    private SearchHits findTop(Map<Long, List<Long>> lemmaIdsBySite, int minWords, int topK) {
+        List<Long> lemmaIds = new ArrayList<>();
+        lemmaIdsBySite.values().forEach(lemmaIds::addAll);
+        if (lemmaIds.isEmpty()) {
+            return SearchHits.EMPTY;
+        }
+        Object[] siteIds = lemmaIdsBySite.keySet().toArray();
+        Object[] documents = new Object[siteIds.length];
+        Object[] averageLengths = new Object[siteIds.length];
+        for (int i = 0; i < siteIds.length; i++) {
+            long siteId = (Long) siteIds[i];
+            // float8, чтобы деление в формуле шло без целочисленного округления
+            documents[i] = (double) collectionStatistics.documents(siteId);
+            averageLengths[i] = collectionStatistics.averageLength(siteId);
+        }
+        double k1 = searchConfig.getBm25K1();
+        double b = searchConfig.getBm25B();
+        List<Long> pageIds = new ArrayList<>();
+        List<Float> scores = new ArrayList<>();
+        int[] total = {0};
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(TOP_BM25_SQL);
+            ps.setDouble(1, k1);
+            ps.setDouble(2, k1);
+            ps.setDouble(3, b);
+            ps.setDouble(4, b);
+            ps.setArray(5, con.createArrayOf("bigint", siteIds));
+            ps.setArray(6, con.createArrayOf("float8", documents));
+            ps.setArray(7, con.createArrayOf("float8", averageLengths));
+            ps.setArray(8, con.createArrayOf("bigint", lemmaIds.toArray()));
+            ps.setInt(9, minWords);
+            ps.setInt(10, Math.max(topK, 1));
+            return ps;
+        }, rs -> {
+            pageIds.add(rs.getLong(1));
+            scores.add(rs.getFloat(2));
+            total[0] = rs.getInt(3);
+        });
+        if (pageIds.isEmpty()) {
+            return SearchHits.EMPTY;
+        }
+        long[] ids = new long[pageIds.size()];
+        float[] relevance = new float[pageIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = pageIds.get(i);
+            relevance[i] = scores.get(i);
+        }
+        return new SearchHits(ids, relevance, total[0]);
+    }
+    @Override
+    public void addPage(long siteId, long pageId, Map<Long, Integer> ranksByLemmaId) {
+        // page_index уже записан в базу
+    }
+    @Override
+    public void removePage(long pageId, Iterable<Long> lemmaIds) {
+        // page_index уже удалён из базы
+    }
+    @Override
+    public void removeSite(long siteId) {
+        // строки удаляются из базы при удалении поколения сайта
+    }
+}
@@ -0,0 +1,325 @@
+package searchengine.searchindex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchConfig;
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+@Component
+@ConditionalOnProperty(name = "search.engine", havingValue = "memory")
+@RequiredArgsConstructor
+@Slf4j
+public class InMemorySearchIndex implements SearchIndex {
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    private final DataSource dataSource;
+    private final CollectionStatistics collectionStatistics;
+    private final SearchConfig searchConfig;
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    // Длина страницы (сумма рангов её лемм) по id страницы, для нормировки BM25
+    private int[] pageLengths = new int[0];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Пока идёт загрузка, изменения применяются к текущему индексу и запоминаются, чтобы повторить их поверх
+    // загруженного снимка: он мог быть прочитан до их коммита. Повтор безопасен, добавление и удаление идемпотентны
+    private List<Runnable> mutationsDuringLoad;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long startedAt = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            mutationsDuringLoad = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            loadSnapshot();
+        } finally {
+            lock.writeLock().lock();
+            try {
+                mutationsDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("In-memory search index loaded: {} lemmas in {} ms", postings.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    private void loadSnapshot() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(LOAD_FETCH_SIZE);
+        Map<Long, PostingList> loaded = new HashMap<>();
+        int[][] lengths = {new int[0]};
+        jdbcTemplate.query("SELECT pi.lemma_id, l.site_id, pi.page_id, pi.rank FROM page_index pi " +
+                "JOIN lemma l ON l.id = pi.lemma_id ORDER BY pi.lemma_id, pi.page_id", rs -> {
+            long lemmaId = rs.getLong(1);
+            long siteId = rs.getLong(2);
+            int pageId = Math.toIntExact(rs.getLong(3));
+            float rank = rs.getFloat(4);
+            loaded.computeIfAbsent(lemmaId, id -> new PostingList(siteId)).add(pageId, rank);
+            lengths[0] = ensureCapacity(lengths[0], pageId);
+            lengths[0][pageId] += Math.round(rank);
+        });
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            postings.putAll(loaded);
+            pageLengths = lengths[0];
+            mutationsDuringLoad.forEach(Runnable::run);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SearchHits search(Map<Long, List<Long>> lemmaIdsBySite, int wordCount, int topK) {
+        return search(lemmaIdsBySite, wordCount, topK, false);
+    }
+
+    @Override
+    public SearchHits searchAny(Map<Long, List<Long>> lemmaIdsBySite, int topK) {
+        return search(lemmaIdsBySite, 1, topK, true);
+    }
+
+    private SearchHits search(Map<Long, List<Long>> lemmaIdsBySite, int wordCount, int topK, boolean any) {
+        TopKCollector collector = new TopKCollector(topK);
+        Bm25 bm25 = new Bm25(searchConfig.getBm25K1(), searchConfig.getBm25B());
+        // Статистика коллекции может читать базу, поэтому берётся до захвата блокировки
+        Map<Long, Long> documentsBySite = new HashMap<>();
+        Map<Long, Double> averageLengthBySite = new HashMap<>();
+        for (Long siteId : lemmaIdsBySite.keySet()) {
+            documentsBySite.put(siteId, collectionStatistics.documents(siteId));
+            averageLengthBySite.put(siteId, collectionStatistics.averageLength(siteId));
+        }
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Long, List<Long>> site : lemmaIdsBySite.entrySet()) {
+                List<Long> lemmaIds = site.getValue();
+                if (!any && lemmaIds.size() != wordCount) {
+                    continue;
+                }
+                List<PostingList> found = new ArrayList<>(lemmaIds.size());
+                for (Long lemmaId : lemmaIds) {
+                    PostingList list = postings.get(lemmaId);
+                    if (list != null && list.size() > 0) {
+                        found.add(list);
+                    }
+                }
+                if (found.isEmpty() || (!any && found.size() != lemmaIds.size())) {
+                    continue;
+                }
+                // Пересечение начинаем с самого короткого списка, по остальным двигаемся галопом
+                PostingList[] lists = found.toArray(new PostingList[0]);
+                Arrays.sort(lists, Comparator.comparingInt(PostingList::size));
+                // Число страниц с леммой берётся из длины списка, чтобы idf соответствовал самому индексу
+                long documents = documentsBySite.get(site.getKey());
+                double averageLength = averageLengthBySite.get(site.getKey());
+                double[] idf = new double[lists.length];
+                for (int l = 0; l < lists.length; l++) {
+                    idf[l] = Bm25.idf(Math.max(documents, lists[l].size()), lists[l].size());
+                }
+                if (any) {
+                    // Отсечённые страницы не оцениваются, но входят в число совпадений
+                    int evaluated = union(lists, idf, bm25, averageLength, collector);
+                    collector.countHits(unionSize(lists) - evaluated);
+                } else {
+                    intersect(lists, idf, bm25, averageLength, collector);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return collector.toHits();
+    }
+
+    private void intersect(PostingList[] lists, double[] idf, Bm25 bm25, double averageLength, TopKCollector collector) {
+        int[] cursors = new int[lists.length];
+        float[] ranks = new float[lists.length];
+        PostingList shortest = lists[0];
+        candidates:
+        for (int i = 0; i < shortest.size(); i++) {
+            int pageId = shortest.pageId(i);
+            ranks[0] = shortest.rank(i);
+            for (int l = 1; l < lists.length; l++) {
+                int pos = lists[l].advance(cursors[l], pageId);
+                cursors[l] = pos;
+                if (pos >= lists[l].size()) {
+                    break candidates;
+                }
+                if (lists[l].pageId(pos) != pageId) {
+                    continue candidates;
+                }
+                ranks[l] = lists[l].rank(pos);
+            }
+            double lengthNorm = bm25.lengthNorm(pageLength(pageId), averageLength);
+            float score = 0;
+            for (int l = 0; l < lists.length; l++) {
+                score += bm25.score(ranks[l], idf[l], lengthNorm);
+            }
+            collector.collect(pageId, score);
+        }
+    }
+
+    // WAND: страницы обходятся по возрастанию id. Если сумма верхних границ слов, чьи курсоры дошли до страницы,
+    // меньше худшего результата в топе, отстающие курсоры перескакивают сразу к следующему возможному кандидату.
+    // Возвращает число оценённых страниц
+    private int union(PostingList[] lists, double[] idf, Bm25 bm25, double averageLength, TopKCollector collector) {
+        float[] upperBounds = new float[lists.length];
+        for (int l = 0; l < lists.length; l++) {
+            // Вклад слова растёт с рангом и падает с длиной, а длина страницы не меньше ранга,
+            // поэтому граница достигается при длине, равной максимальному рангу. Запас покрывает округление float
+            float maxRank = lists[l].maxRank();
+            upperBounds[l] = bm25.score(maxRank, idf[l], bm25.lengthNorm(Math.round(maxRank), averageLength)) * 1.0001f;
+        }
+        int[] cursors = new int[lists.length];
+        int[] order = new int[lists.length];
+        for (int l = 0; l < lists.length; l++) {
+            order[l] = l;
+        }
+        int active = lists.length;
+        int evaluated = 0;
+        while ((active = sortByPage(order, active, lists, cursors)) > 0) {
+            float threshold = collector.minCompetitiveScore();
+            float bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < active && pivot < 0; i++) {
+                bound += upperBounds[order[i]];
+                if (bound >= threshold) {
+                    pivot = i;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotPage = lists[order[pivot]].pageId(cursors[order[pivot]]);
+            if (lists[order[0]].pageId(cursors[order[0]]) == pivotPage) {
+                double lengthNorm = bm25.lengthNorm(pageLength(pivotPage), averageLength);
+                float score = 0;
+                for (int i = 0; i < active && lists[order[i]].pageId(cursors[order[i]]) == pivotPage; i++) {
+                    int l = order[i];
+                    score += bm25.score(lists[l].rank(cursors[l]), idf[l], lengthNorm);
+                    cursors[l]++;
+                }
+                collector.collect(pivotPage, score);
+                evaluated++;
+            } else {
+                // Страницы до опорной содержат только слова до неё и порог не наберут
+                for (int i = 0; i < pivot; i++) {
+                    int l = order[i];
+                    cursors[l] = lists[l].advance(cursors[l], pivotPage);
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    // Число разных страниц в списках: слияние только по id, без оценки
+    private static int unionSize(PostingList[] lists) {
+        if (lists.length == 1) {
+            return lists[0].size();
+        }
+        int[] cursors = new int[lists.length];
+        int count = 0;
+        while (true) {
+            int page = Integer.MAX_VALUE;
+            for (int l = 0; l < lists.length; l++) {
+                page = Math.min(page, currentPage(lists[l], cursors[l]));
+            }
+            if (page == Integer.MAX_VALUE) {
+                return count;
+            }
+            count++;
+            for (int l = 0; l < lists.length; l++) {
+                if (currentPage(lists[l], cursors[l]) == page) {
+                    cursors[l]++;
+                }
+            }
+        }
+    }
+
+    // Сортировка вставками по текущей странице курсора (слов в запросе немного); исчерпанные списки уходят в конец
+    // и отбрасываются. Возвращает число оставшихся списков
+    private static int sortByPage(int[] order, int active, PostingList[] lists, int[] cursors) {
+        for (int i = 1; i < active; i++) {
+            int l = order[i];
+            int page = currentPage(lists[l], cursors[l]);
+            int j = i - 1;
+            while (j >= 0 && currentPage(lists[order[j]], cursors[order[j]]) > page) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = l;
+        }
+        while (active > 0 && cursors[order[active - 1]] >= lists[order[active - 1]].size()) {
+            active--;
+        }
+        return active;
+    }
+
+    private static int currentPage(PostingList list, int cursor) {
+        return cursor < list.size() ? list.pageId(cursor) : Integer.MAX_VALUE;
+    }
+
+    private int pageLength(int pageId) {
+        return pageId < pageLengths.length ? pageLengths[pageId] : 0;
+    }
+
+    @Override
+    public void addPage(long siteId, long pageId, Map<Long, Integer> ranksByLemmaId) {
+        int id = Math.toIntExact(pageId);
+        int length = 0;
+        for (int rank : ranksByLemmaId.values()) {
+            length += rank;
+        }
+        int pageLength = length;
+        mutate(() -> {
+            for (Map.Entry<Long, Integer> entry : ranksByLemmaId.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), lemmaId -> new PostingList(siteId))
+                        .add(id, entry.getValue());
+            }
+            pageLengths = ensureCapacity(pageLengths, id);
+            pageLengths[id] = pageLength;
+        });
+    }
+
+    @Override
+    public void removePage(long pageId, Iterable<Long> lemmaIds) {
+        int id = Math.toIntExact(pageId);
+        mutate(() -> {
+            for (Long lemmaId : lemmaIds) {
+                PostingList list = postings.get(lemmaId);
+                if (list != null && list.remove(id) && list.size() == 0) {
+                    postings.remove(lemmaId);
+                }
+            }
+            if (id < pageLengths.length) {
+                pageLengths[id] = 0;
+            }
+        });
+    }
+
+    @Override
+    public void removeSite(long siteId) {
+        mutate(() -> postings.values().removeIf(list -> list.siteId() == siteId));
+    }
+
+    private void mutate(Runnable mutation) {
+        lock.writeLock().lock();
+        try {
+            mutation.run();
+            if (mutationsDuringLoad != null) {
+                mutationsDuringLoad.add(mutation);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    private static int[] ensureCapacity(int[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 3 / 2));
+    }
+}
@@ -0,0 +1,81 @@
+package searchengine.searchindex;
+import java.util.Arrays;
+// Отсортированные по возрастанию id страниц с параллельным массивом рангов
+final class PostingList {
+    private final long siteId;
+    private int[] pageIds = new int[4];
+    private float[] ranks = new float[4];
+    private int size;
+    // Верхняя граница рангов для отсечения WAND: при удалении не уменьшается, оставаясь верной оценкой сверху
+    private float maxRank;
+    PostingList(long siteId) {
+        this.siteId = siteId;
+    }
+    long siteId() {
+        return siteId;
+    }
+    int size() {
+        return size;
+    }
+    int pageId(int index) {
+        return pageIds[index];
+    }
+    float rank(int index) {
+        return ranks[index];
+    }
+    float maxRank() {
+        return maxRank;
+    }
+    void add(int pageId, float rank) {
+        maxRank = Math.max(maxRank, rank);
+        if (size > 0 && pageIds[size - 1] >= pageId) {
+            int pos = Arrays.binarySearch(pageIds, 0, size, pageId);
+            if (pos >= 0) {
+                ranks[pos] = rank;
+                return;
+            }
+            insertAt(-pos - 1, pageId, rank);
+            return;
+        }
+        ensureCapacity(size + 1);
+        pageIds[size] = pageId;
+        ranks[size] = rank;
+        size++;
+    }
+    boolean remove(int pageId) {
+        int pos = Arrays.binarySearch(pageIds, 0, size, pageId);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(pageIds, pos + 1, pageIds, pos, size - pos - 1);
+        System.arraycopy(ranks, pos + 1, ranks, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+    // Галопирующий поиск: первая позиция >= from, на которой pageId >= target
+    int advance(int from, int target) {
+        int bound = 1;
+        while (from + bound < size && pageIds[from + bound] < target) {
+            bound <<= 1;
+        }
+        int low = from + (bound >> 1);
+        int high = Math.min(from + bound, size);
+        int pos = Arrays.binarySearch(pageIds, low, high, target);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+    private void insertAt(int pos, int pageId, float rank) {
+        ensureCapacity(size + 1);
+        System.arraycopy(pageIds, pos, pageIds, pos + 1, size - pos);
+        System.arraycopy(ranks, pos, ranks, pos + 1, size - pos);
+        pageIds[pos] = pageId;
+        ranks[pos] = rank;
+        size++;
+    }
+    private void ensureCapacity(int capacity) {
+        if (capacity > pageIds.length) {
+            int newLength = Math.max(capacity, pageIds.length + (pageIds.length >> 1));
+            pageIds = Arrays.copyOf(pageIds, newLength);
+            ranks = Arrays.copyOf(ranks, newLength);
+        }
+    }
+}
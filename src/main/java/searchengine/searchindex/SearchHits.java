@@ -0,0 +1,21 @@
+package searchengine.searchindex;
+import lombok.Getter;
+// Лучшие найденные страницы в порядке убывания релевантности и общее число совпадений
+@Getter
+public class SearchHits {
+    public static final SearchHits EMPTY = new SearchHits(new long[0], new float[0], 0);
+    private final long[] pageIds;
+    private final float[] scores;
+    private final int totalHits;
+    public SearchHits(long[] pageIds, float[] scores, int totalHits) {
+        this.pageIds = pageIds;
+        this.scores = scores;
+        this.totalHits = totalHits;
+    }
+    public int size() {
+        return pageIds.length;
+    }
+    public float maxScore() {
+        return pageIds.length == 0 ? 0 : scores[0];
+    }
+}
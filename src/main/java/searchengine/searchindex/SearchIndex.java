@@ -0,0 +1,13 @@
+package searchengine.searchindex;
+import java.util.List;
+import java.util.Map;
+public interface SearchIndex {
+    // lemmaIdsBySite: для каждого сайта id его лемм по словам запроса; страница должна содержать все wordCount слов.
+    // Возвращает не больше topK лучших страниц и общее число совпадений
+    SearchHits search(Map<Long, List<Long>> lemmaIdsBySite, int wordCount, int topK);
+    // Дизъюнктивный вариант: страница подходит, если содержит хотя бы одно слово запроса
+    SearchHits searchAny(Map<Long, List<Long>> lemmaIdsBySite, int topK);
+    void addPage(long siteId, long pageId, Map<Long, Integer> ranksByLemmaId);
+    void removePage(long pageId, Iterable<Long> lemmaIds);
+    void removeSite(long siteId);
+}
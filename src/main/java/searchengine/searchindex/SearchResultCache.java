@@ -0,0 +1,100 @@
+package searchengine.searchindex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.SearchConfig;
+import searchengine.dto.search.SearchCacheStatistics;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+// Ранжированные результаты запросов: ключ — набор лемм запроса и сайт (null — все сайты).
+// Запись помнит поколение индекса сайта, на котором посчитана; изменение активного индекса сайта
+// увеличивает его поколение и общее, и старые записи перестают находиться. Вытеснение LRU по числу записей
+@Component
+@Slf4j
+public class SearchResultCache {
+    private final int capacity;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong globalGeneration = new AtomicLong();
+    private final LinkedHashMap<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    public SearchResultCache(SearchConfig searchConfig) {
+        this.capacity = Math.max(searchConfig.getCacheSize(), 0);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    // Поколение берётся до расчёта результата: если индекс изменится во время расчёта, запись сразу устареет
+    public long generation(String siteUrl) {
+        return siteUrl == null ? globalGeneration.get()
+                : generations.computeIfAbsent(siteUrl, url -> new AtomicLong()).get();
+    }
+    public void invalidate(String siteUrl) {
+        generations.computeIfAbsent(siteUrl, url -> new AtomicLong()).incrementAndGet();
+        globalGeneration.incrementAndGet();
+    }
+    // Результат из кэша, если он посчитан на текущем поколении и содержит первые needed страниц
+    public SearchHits get(Collection<String> lemmas, String siteUrl, int needed) {
+        if (capacity == 0) {
+            return null;
+        }
+        String key = key(lemmas, siteUrl);
+        long generation = generation(siteUrl);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.generation != generation) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        SearchHits cached = entry != null && (entry.hits.size() >= needed || entry.hits.size() >= entry.hits.getTotalHits())
+                ? entry.hits : null;
+        (cached != null ? hits : misses).increment();
+        return cached;
+    }
+    public void put(Collection<String> lemmas, String siteUrl, long generation, SearchHits searchHits) {
+        if (capacity == 0 || generation != generation(siteUrl)) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key(lemmas, siteUrl), new Entry(generation, searchHits));
+        }
+    }
+    public SearchCacheStatistics statistics() {
+        SearchCacheStatistics statistics = new SearchCacheStatistics();
+        synchronized (entries) {
+            statistics.setSize(entries.size());
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        statistics.setCapacity(capacity);
+        statistics.setHits(hitCount);
+        statistics.setMisses(missCount);
+        statistics.setEvictions(evictions.sum());
+        statistics.setHitRate(hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount));
+        return statistics;
+    }
+    private static String key(Collection<String> lemmas, String siteUrl) {
+        String[] sorted = lemmas.toArray(new String[0]);
+        Arrays.sort(sorted);
+        return (siteUrl != null ? siteUrl : "") + '\n' + String.join(" ", sorted);
+    }
+    private static class Entry {
+        private final long generation;
+        private final SearchHits hits;
+        Entry(long generation, SearchHits hits) {
+            this.generation = generation;
+            this.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package searchengine.searchindex;
+// Ограниченная куча из k лучших страниц на примитивных массивах; в корне худший из отобранных.
+// Порядок: релевантность по убыванию, при равенстве - id по возрастанию
+public final class TopKCollector {
+    private final int k;
+    private final long[] pageIds;
+    private final float[] scores;
+    private int size;
+    private int totalHits;
+    public TopKCollector(int k) {
+        this.k = Math.max(k, 1);
+        this.pageIds = new long[this.k];
+        this.scores = new float[this.k];
+    }
+    public void collect(long pageId, float score) {
+        totalHits++;
+        if (size < k) {
+            pageIds[size] = pageId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (better(pageId, score, pageIds[0], scores[0])) {
+            pageIds[0] = pageId;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+    // Совпадения, которые не передавались в collect, например отсечённые без оценки
+    public void countHits(int count) {
+        totalHits += count;
+    }
+    public float minCompetitiveScore() {
+        return size < k ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+    public SearchHits toHits() {
+        long[] sortedIds = new long[size];
+        float[] sortedScores = new float[size];
+        // Извлекаем худший элемент из корня и заполняем результат с конца
+        for (int i = size - 1; i >= 0; i--) {
+            sortedIds[i] = pageIds[0];
+            sortedScores[i] = scores[0];
+            size--;
+            pageIds[0] = pageIds[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return new SearchHits(sortedIds, sortedScores, totalHits);
+    }
+    private static boolean better(long idA, float scoreA, long idB, float scoreB) {
+        return scoreA > scoreB || (scoreA == scoreB && idA < idB);
+    }
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!better(pageIds[parent], scores[parent], pageIds[index], scores[index])) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+    private void siftDown(int index) {
+        while (true) {
+            int worst = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && better(pageIds[worst], scores[worst], pageIds[left], scores[left])) {
+                worst = left;
+            }
+            if (right < size && better(pageIds[worst], scores[worst], pageIds[right], scores[right])) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(worst, index);
+            index = worst;
+        }
+    }
+    private void swap(int a, int b) {
+        long id = pageIds[a];
+        pageIds[a] = pageIds[b];
+        pageIds[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -1,8 +1,10 @@
 package searchengine.services;
+import searchengine.dto.crawler.CrawlerStatisticsResponse;
 import searchengine.dto.statistics.IndexingResponse;
 public interface IndexingService {
     boolean isIndexing();
-    IndexingResponse startIndexing();
+    IndexingResponse startIndexing(boolean resume);
     IndexingResponse  stopIndexing();
     IndexingResponse indexPage(String url);
+    CrawlerStatisticsResponse getCrawlerStatistics();
 }
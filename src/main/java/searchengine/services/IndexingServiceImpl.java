@@ -4,18 +4,23 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import searchengine.config.SiteConfig;
+import searchengine.contentstore.ContentStore;
 import searchengine.config.SitesList;
+import searchengine.dto.crawler.CrawlerStatisticsResponse;
 import searchengine.dto.statistics.IndexingResponse;
 import searchengine.model.*;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageIndexRepository;
-import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
+import searchengine.siteparser.CrawlGovernor;
+import searchengine.siteparser.CrawlPipeline;
 import searchengine.siteparser.SiteMapBuilder;
+import searchengine.siteparser.UrlNormalizer;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 @Service
 @RequiredArgsConstructor
@@ -24,17 +29,25 @@ public class IndexingServiceImpl implements IndexingService {
     private static final AtomicBoolean indexing = new AtomicBoolean(false);
     private final SitesList sitesList;
     private final SiteRepository siteRepository;
-    private final PageRepository pageRepository;
-    private final LemmaRepository lemmaRepository;
-    private final PageIndexRepository pageIndexRepository;
     private final SiteMapBuilder siteMapBuilder;
     private final PageIndexingService pageIndexingService;
+    private final ContentStore contentStore;
+    private final SiteGenerationService siteGenerationService;
+    private final CrawlPipeline crawlPipeline;
+    private final CrawlGovernor crawlGovernor;
+    private final LemmaFinder lemmaFinder;
+    // Потоки сайтов только ждут окончания обхода; загрузки и запись распределяют CrawlGovernor и стадии конвейера
+    private final ExecutorService siteExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "site-indexing");
+        thread.setDaemon(true);
+        return thread;
+    });
     @Override
     public boolean isIndexing() {
         return indexing.get();
     }
     @Override
-    public IndexingResponse startIndexing() {
+    public IndexingResponse startIndexing(boolean resume) {
         log.info("startIndexing called - currentFlag = {}", indexing.get());
         boolean started = indexing.compareAndSet(false, true);
         if (!started) {
@@ -49,46 +62,44 @@ public class IndexingServiceImpl implements IndexingService {
         }
         List<CompletableFuture<Void>> tasks = new ArrayList<>();
         for (SiteConfig siteConfig : configuredSites) {
-            tasks.add(CompletableFuture.runAsync(() -> indexSite(siteConfig)));
+            tasks.add(CompletableFuture.runAsync(() -> indexSite(siteConfig, resume), siteExecutor));
         }
         CompletableFuture<Void> all = CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
         all.whenComplete((v, ex) -> {
             if (ex != null) log.error("allOf completed with exception: {}", ex.getMessage(), ex);
             indexing.set(false);
             log.info("Indexing completed, flag reset to false");
+            contentStore.compact();
         });
         return new IndexingResponse(true);
     }
-    @Transactional
-    private void indexSite(SiteConfig siteConfig) {
+    private void indexSite(SiteConfig siteConfig, boolean resume) {
         String url = siteConfig.getUrl();
+        Site site = null;
         try {
-            Site existingSite = siteRepository.findByUrl(url);
-            if (existingSite != null) {
-                siteRepository.delete(existingSite);
+            // При продолжении обход идёт в то же теневое поколение, в котором был прерван
+            Long resumableId = resume ? siteMapBuilder.findResumableSiteId(url) : null;
+            if (resumableId != null) {
+                site = siteGenerationService.resumeShadow(url, resumableId);
             }
-            Site site = new Site();
-            site.setUrl(url);
-            site.setName(siteConfig.getName());
-            site.setStatus(Status.INDEXING);
-            site.setStatusTime(LocalDateTime.now());
-            site.setLastError(null);
-            siteRepository.save(site);
-            List<String> pageUrls = siteMapBuilder.build(site); // теперь возвращает List<String>
-            for (String pageUrl : pageUrls) {
-                try {
-                    String content = pageIndexingService.fetchPageContent(pageUrl);
-                    pageIndexingService.createOrUpdatePage(site, pageUrl.replaceFirst(url, ""), content);
-                } catch (IOException e) {
-                    log.error("Error indexing page {}: {}", pageUrl, e.getMessage());
-                }
+            boolean resumed = site != null;
+            // Пока строится новое поколение, поиск продолжает работать по активному
+            siteGenerationService.dropInactiveAsync(url, site);
+            if (!resumed) {
+                site = siteGenerationService.createShadow(url, siteConfig.getName());
+            }
+            siteMapBuilder.build(site, resumed);
+            if (site.getStatus() == Status.FAILED) {
+                log.warn("Crawl of {} failed, keeping the active generation", url);
+                return;
             }
             site.setStatus(Status.INDEXED);
             site.setStatusTime(LocalDateTime.now());
             siteRepository.save(site);
+            siteGenerationService.activate(site);
+            siteGenerationService.dropInactiveAsync(url, null);
         } catch (Exception e) {
             log.error("Task error for site {}: {}", url, e.getMessage(), e);
-            Site site = siteRepository.findByUrl(url);
             if (site != null) {
                 site.setStatus(Status.FAILED);
                 site.setLastError("Ошибка индексации: " + e.getMessage());
@@ -109,17 +120,29 @@ public class IndexingServiceImpl implements IndexingService {
     @Override
     @Transactional
     public IndexingResponse indexPage(String url) {
-        Site site = siteRepository.findAll().stream()
+        SiteConfig siteConfig = sitesList.getSites().stream()
                 .filter(s -> url.startsWith(s.getUrl()))
                 .findFirst()
                 .orElse(null);
-
-        if (site == null) {
+        if (siteConfig == null) {
             return new IndexingResponse(false,
                     "Данная страница находится за пределами сайтов, указанных в конфигурационном файле");
         }
+        Site site = findSiteForPage(siteConfig.getUrl());
+        if (site == null) {
+            return new IndexingResponse(false, "Сайт ещё не индексировался: сначала запустите индексацию");
+        }
+        if (siteMapBuilder.isCrawling(site.getId())) {
+            return new IndexingResponse(false, "Сайт индексируется впервые: страница будет доступна после завершения индексации");
+        }
 
-        String path = url.replaceFirst(site.getUrl(), "");
+        String normalizedUrl = UrlNormalizer.normalize(url);
+        String siteUrl = UrlNormalizer.normalize(site.getUrl());
+        if (normalizedUrl == null || siteUrl == null) {
+            return new IndexingResponse(false, "Некорректный адрес страницы: " + url);
+        }
+        // Путь выводится так же, как при обходе, чтобы повторная индексация заменила ту же страницу
+        String path = UrlNormalizer.relativePath(siteUrl, normalizedUrl);
         try {
             String content = pageIndexingService.fetchPageContent(url);
             pageIndexingService.createOrUpdatePage(site, path, content);
@@ -129,4 +152,31 @@ public class IndexingServiceImpl implements IndexingService {
 
         return new IndexingResponse(true);
     }
-}
\ No newline at end of file
+    // Активное поколение сайта; если активного нет, новейшее теневое (например, от остановленного первого обхода),
+    // страница станет видна поиску вместе с ним. Теневое поколение, которое сейчас обходится, indexPage отклоняет
+    private Site findSiteForPage(String siteUrl) {
+        Site active = siteRepository.findByUrlAndActiveTrue(siteUrl);
+        if (active != null) {
+            return active;
+        }
+        return siteRepository.findAllByUrlAndActiveFalse(siteUrl).stream()
+                .max(Comparator.comparingLong(Site::getId))
+                .orElse(null);
+    }
+    @Override
+    public CrawlerStatisticsResponse getCrawlerStatistics() {
+        CrawlerStatisticsResponse response = new CrawlerStatisticsResponse();
+        response.setResult(true);
+        response.setIndexing(indexing.get());
+        response.setStages(crawlPipeline.statistics());
+        response.setFetchLimit(crawlGovernor.getFetchLimit());
+        response.setFetchesInUse(crawlGovernor.getFetchesInUse());
+        response.setSites(crawlGovernor.allocations());
+        response.setLemmaCache(lemmaFinder.cacheStatistics());
+        return response;
+    }
+    @PreDestroy
+    public void shutdown() {
+        siteExecutor.shutdownNow();
+    }
+}
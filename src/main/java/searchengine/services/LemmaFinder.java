@@ -2,9 +2,9 @@ package searchengine.services;
 
 import org.apache.lucene.morphology.LuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.springframework.stereotype.Component;
+import searchengine.config.LemmaConfig;
+import searchengine.dto.crawler.LemmaCacheStatistics;
 import java.io.IOException;
 import java.util.*;
 
@@ -15,41 +15,73 @@ public class LemmaFinder {
     private static final List<String> EXCLUDED_PARTS = List.of(
             "СОЮЗ", "ПРЕДЛ", "ЧАСТ", "МЕЖД"
     );
+    // Словоформа не даёт леммы: не слово словаря или служебная часть речи
+    private static final String NO_LEMMA = "";
+    // Общий для индексации и поиска: словоформы текстов повторяются, разбор каждой делается один раз
+    private final WordLemmaCache cache;
+    // Буфер слова на поток: токенизатор не создаёт строк, пока слово находится в кэше
+    private static final ThreadLocal<WordBuffer> WORD_BUFFERS = ThreadLocal.withInitial(WordBuffer::new);
 
-    public LemmaFinder() throws IOException {
+    public LemmaFinder(LemmaConfig lemmaConfig) throws IOException {
         this.morphology = new RussianLuceneMorphology();
+        this.cache = new WordLemmaCache(lemmaConfig.getCacheSize());
     }
 
-    // Не статический метод теперь
-    public String extractText(String html) {
-        Document doc = Jsoup.parse(html);
-        return doc.text();
-    }
-
+    // Один проход по тексту: слово — непрерывная последовательность русских букв, остальные символы
+    // его завершают; заглавные буквы приводятся к строчным по ходу
     public Map<String, Integer> collectLemmas(String text) {
         Map<String, Integer> lemmas = new HashMap<>();
-        String[] words = text.toLowerCase(Locale.ROOT)
-                .replaceAll("[^а-яё\\s]", " ")
-                .trim()
-                .split("\\s+");
-        for (String word : words) {
-            if (word.isBlank() || word.length() <= 1) continue;
-            if (!morphology.checkString(word)) continue;
-            List<String> morphInfos = morphology.getMorphInfo(word);
-            if (containsExcludedPartOfSpeech(morphInfos)) continue;
-            List<String> normalForms = morphology.getNormalForms(word);
-            if (!normalForms.isEmpty()) {
-                String lemma = normalForms.get(0);
-                lemmas.put(lemma, lemmas.getOrDefault(lemma, 0) + 1);
+        WordBuffer word = WORD_BUFFERS.get();
+        word.clear();
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? toLowerCyrillic(text.charAt(i)) : ' ';
+            if ((c >= 'а' && c <= 'я') || c == 'ё') {
+                word.append(c);
+                continue;
+            }
+            if (word.length() > 1) {
+                String lemma = lemmaOf(word);
+                if (!lemma.isEmpty()) {
+                    lemmas.merge(lemma, 1, Integer::sum);
+                }
             }
+            word.clear();
         }
         return lemmas;
     }
 
+    private static char toLowerCyrillic(char c) {
+        if (c >= 'А' && c <= 'Я') {
+            return (char) (c + ('а' - 'А'));
+        }
+        return c == 'Ё' ? 'ё' : c;
+    }
+
+    public LemmaCacheStatistics cacheStatistics() {
+        return cache.statistics();
+    }
+
+    private String lemmaOf(WordBuffer word) {
+        String lemma = cache.get(word);
+        if (lemma == null) {
+            lemma = lookupLemma(word.toString());
+            cache.put(word, lemma);
+        }
+        return lemma;
+    }
+
+    private String lookupLemma(String word) {
+        if (!morphology.checkString(word)) return NO_LEMMA;
+        if (containsExcludedPartOfSpeech(morphology.getMorphInfo(word))) return NO_LEMMA;
+        List<String> normalForms = morphology.getNormalForms(word);
+        return normalForms.isEmpty() ? NO_LEMMA : normalForms.get(0);
+    }
+
     private boolean containsExcludedPartOfSpeech(List<String> morphInfos) {
         for (String morphInfo : morphInfos) {
+            String upperCased = morphInfo.toUpperCase(Locale.ROOT);
             for (String part : EXCLUDED_PARTS) {
-                if (morphInfo.toUpperCase().contains(part)) {
+                if (upperCased.contains(part)) {
                     return true;
                 }
             }
@@ -3,10 +3,17 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import searchengine.contentstore.ContentStore;
 import searchengine.model.*;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageIndexRepository;
+import searchengine.repository.IndexBatchRepository;
 import searchengine.repository.PageRepository;
+import searchengine.searchindex.CollectionStatistics;
+import searchengine.searchindex.SearchIndex;
+import searchengine.searchindex.SearchResultCache;
+import searchengine.siteparser.PageVersion;
+import searchengine.siteparser.ParsedPage;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,86 +22,149 @@ import java.util.Map;
 @Slf4j
 public class PageProcessingService {
     private final PageRepository pageRepository;
-    private final LemmaRepository lemmaRepository;
-    private final PageIndexRepository pageIndexRepository;
+    private final IndexBatchRepository indexBatchRepository;
+    private final ContentStore contentStore;
+    private final SearchIndex searchIndex;
+    private final SearchResultCache searchResultCache;
+    private final CollectionStatistics collectionStatistics;
     @Transactional
-    public void savePageAndLemmas(Site site, String path, int statusCode, String htmlContent, Map<String, Integer> lemmasMap) {
+    public void savePageAndLemmas(Site site, String path, int statusCode, ParsedPage parsedPage, Map<String, Integer> lemmasMap) {
         log.info("savePageAndLemmas: site={}, path='{}', lemmas={}", site.getUrl(), path, lemmasMap.size());
-        Page page = new Page();
-        page.setPath(path);
-        page.setSite(site);
-        page.setCode(statusCode);
-        page.setContent(htmlContent);
-        page = pageRepository.save(page);
-        pageRepository.flush();
+        Page page = createPage(site, path, statusCode, parsedPage, null, null);
+        Map<String, Integer> counts = new HashMap<>();
         for (Map.Entry<String, Integer> entry : lemmasMap.entrySet()) {
-            String lemmaText = entry.getKey();
-            int countOnPage = entry.getValue();
-            if (countOnPage <= 0) continue;
-            Lemma lemma = lemmaRepository.findByLemmaAndSite(lemmaText, site).orElse(null);
-            if (lemma == null) {
-                lemma = new Lemma();
-                lemma.setSite(site);
-                lemma.setLemma(lemmaText);
-                lemma.setFrequency(countOnPage);
-                try {
-                    lemma = lemmaRepository.saveAndFlush(lemma);
-                } catch (org.springframework.dao.DataIntegrityViolationException ex) {
-                    // при гонке — получаем существующую лемму и обновляем частоту
-                    lemma = lemmaRepository.findByLemmaAndSite(lemmaText, site)
-                            .orElseThrow(() -> new RuntimeException("Не удалось получить лемму после ошибки уникальности: " + lemmaText, ex));
-                    lemma.setFrequency(lemma.getFrequency() + countOnPage);
-                    lemma = lemmaRepository.saveAndFlush(lemma);
-                }
-
-            } else {
-                lemma.setFrequency(lemma.getFrequency() + countOnPage);
-                lemma = lemmaRepository.saveAndFlush(lemma);
+            if (entry.getValue() > 0) {
+                counts.put(entry.getKey(), entry.getValue());
             }
-            if (lemma == null || lemma.getId() == null) {
-                log.error("Lemma not persisted for '{}', skipping PageIndex", lemmaText);
-                continue;
-            }
-            PageIndex index = new PageIndex();
-            index.setPage(page);
-            index.setLemma(lemma);
-            index.setRank(countOnPage);
-            pageIndexRepository.save(index);
         }
-        pageIndexRepository.flush();
-        lemmaRepository.flush();
-        pageRepository.flush();
+        if (counts.isEmpty()) {
+            return;
+        }
+        // Одна многострочная вставка лемм и пакетная вставка индексов вместо запросов на каждую лемму
+        Map<String, Long> lemmaIds = indexBatchRepository.upsertLemmas(site.getId(), counts);
+        Map<Long, Integer> ranks = new HashMap<>(lemmaIds.size() * 2);
+        for (Map.Entry<String, Long> entry : lemmaIds.entrySet()) {
+            ranks.put(entry.getValue(), counts.get(entry.getKey()));
+        }
+        saveIndices(site, page, ranks);
+    }
+    // Вариант для обхода сайта: id лемм уже получены из SiteLemmaDictionary, частоты он обновит сам
+    @Transactional
+    public void savePageAndIndices(Site site, String path, int statusCode, ParsedPage parsedPage, PageVersion version,
+                                   Map<Long, Integer> ranksByLemmaId) {
+        log.info("savePageAndIndices: site={}, path='{}', lemmas={}", site.getUrl(), path, ranksByLemmaId.size());
+        Page page = createPage(site, path, statusCode, parsedPage, version, null);
+        saveIndices(site, page, ranksByLemmaId);
+    }
+    // Почти-дубль сохраняется без индекса и без вклада в частоты лемм, со ссылкой на каноническую страницу
+    @Transactional
+    public void saveAliasPage(Site site, String path, int statusCode, ParsedPage parsedPage, PageVersion version,
+                              long canonicalPageId) {
+        log.debug("saveAliasPage: site={}, path='{}', canonical page id={}", site.getUrl(), path, canonicalPageId);
+        createPage(site, path, statusCode, parsedPage, version, canonicalPageId);
+    }
+    // Страница не изменилась с прошлого обхода: индекс копируется из прошлого поколения без лемматизации.
+    // Возвращает ранги по id лемм нового поколения, чтобы словарь сайта добавил частоты
+    @Transactional
+    public Map<Long, Integer> copyUnchangedPage(Site site, String path, ParsedPage parsedPage, PageVersion previous,
+                                                PageVersion version) {
+        log.debug("copyUnchangedPage: site={}, path='{}', from page id={}", site.getUrl(), path, previous.getPageId());
+        Page page = createPage(site, path, previous.getCode(), parsedPage, version, null);
+        Map<Long, Integer> ranks = indexBatchRepository.copyPageIndices(previous.getPageId(), page.getId(), site.getId());
+        countTokens(site, page, ranks);
+        long siteId = site.getId();
+        long pageId = page.getId();
+        afterIndexCommit(site, () -> searchIndex.addPage(siteId, pageId, ranks));
+        return ranks;
     }
     @Transactional
     public void deletePageAndUpdateLemmas(Page page) {
-        List<PageIndex> indices = pageIndexRepository.findAllByPage(page);
-        Map<Long, Integer> lemmaIdToDecrement = new HashMap<>();
-        Map<Long, Lemma> lemmaCache = new HashMap<>();
-        for (PageIndex idx : indices) {
-            Lemma lemma = idx.getLemma();
-            if (lemma == null) continue;
-            Long lemmaId = lemma.getId();
-            int dec = Math.round(idx.getRank());
-            lemmaIdToDecrement.put(lemmaId, lemmaIdToDecrement.getOrDefault(lemmaId, 0) + dec);
-            lemmaCache.putIfAbsent(lemmaId, lemma);
+        List<Long> lemmaIds = indexBatchRepository.deletePageIndices(page.getId());
+        long pageId = page.getId();
+        Site site = page.getSite();
+        pageRemoved(site.getId(), page);
+        pageRepository.delete(page);
+        afterIndexCommit(site, () -> {
+            searchIndex.removePage(pageId, lemmaIds);
+            contentStore.delete(List.of(pageId));
+        });
+    }
+    @Transactional
+    public void deletePage(Page page, SiteLemmaDictionary lemmaDictionary) {
+        Map<Long, Integer> ranks = indexBatchRepository.deletePageIndicesReturningRanks(page.getId());
+        long pageId = page.getId();
+        pageRemoved(lemmaDictionary.getSiteId(), page);
+        pageRepository.delete(page);
+        lemmaDictionary.addFrequencies(ranks, -1);
+        afterCommit(() -> {
+            searchIndex.removePage(pageId, ranks.keySet());
+            contentStore.delete(List.of(pageId));
+        });
+    }
+    private Page createPage(Site site, String path, int statusCode, ParsedPage parsedPage, PageVersion version,
+                            Long canonicalPageId) {
+        Page page = new Page();
+        page.setPath(path);
+        page.setSite(site);
+        page.setCode(statusCode);
+        page.setTitle(parsedPage.getTitle());
+        page.setContentHash(parsedPage.getContentHash());
+        page.setSimhash(parsedPage.getSimHash());
+        page.setCanonicalPageId(canonicalPageId);
+        if (version != null) {
+            page.setEtag(version.getEtag());
+            page.setLastModified(version.getLastModified());
         }
-        pageIndexRepository.deleteAllByPage(page);
-        for (Map.Entry<Long, Integer> entry : lemmaIdToDecrement.entrySet()) {
-            Long lemmaId = entry.getKey();
-            int dec = entry.getValue();
-            Lemma lemma = lemmaCache.get(lemmaId);
-            if (lemma == null) {
-                lemma = lemmaRepository.findById(lemmaId).orElse(null);
-            }
-            if (lemma == null) continue;
-
-            lemma.setFrequency(lemma.getFrequency() - dec);
-            if (lemma.getFrequency() <= 0) {
-                lemmaRepository.delete(lemma);
-            } else {
-                lemmaRepository.save(lemma);
+        page = pageRepository.saveAndFlush(page);
+        contentStore.save(page.getId(), parsedPage.getHtml(), parsedPage.getText());
+        return page;
+    }
+    // Изменение индекса после фиксации, затем сброс кэша результатов сайта. Порядок важен: при сбросе до обновления
+    // запрос между ними ранжировал бы по старому индексу и закэшировал результат под новым поколением.
+    // Теневое поколение поиску не видно, его кэш не сбрасывается
+    private void afterIndexCommit(Site site, Runnable indexUpdate) {
+        boolean active = site.isActive();
+        String siteUrl = site.getUrl();
+        afterCommit(() -> {
+            indexUpdate.run();
+            if (active) {
+                searchResultCache.invalidate(siteUrl);
             }
+        });
+    }
+    private void saveIndices(Site site, Page page, Map<Long, Integer> ranksByLemmaId) {
+        indexBatchRepository.insertPageIndices(page.getId(), ranksByLemmaId);
+        countTokens(site, page, ranksByLemmaId);
+        long siteId = site.getId();
+        long pageId = page.getId();
+        afterIndexCommit(site, () -> searchIndex.addPage(siteId, pageId, ranksByLemmaId));
+    }
+    // Длина страницы для BM25 — сумма рангов её лемм; страница уже в контексте, колонка запишется при фиксации
+    private void countTokens(Site site, Page page, Map<Long, Integer> ranksByLemmaId) {
+        int tokens = 0;
+        for (int rank : ranksByLemmaId.values()) {
+            tokens += rank;
         }
-        pageRepository.delete(page);
+        page.setTokenCount(tokens);
+        if (tokens > 0) {
+            long siteId = site.getId();
+            int finalTokens = tokens;
+            afterCommit(() -> collectionStatistics.pageAdded(siteId, finalTokens));
+        }
+    }
+    private void pageRemoved(long siteId, Page page) {
+        if (page.getCanonicalPageId() == null && page.getTokenCount() > 0) {
+            int tokens = page.getTokenCount();
+            afterCommit(() -> collectionStatistics.pageRemoved(siteId, tokens));
+        }
+    }
+    // Индекс в памяти обновляется только после фиксации транзакции, чтобы не видеть откатившиеся страницы
+    private static void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
-}
\ No newline at end of file
+}
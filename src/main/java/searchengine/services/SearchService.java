@@ -1,16 +1,23 @@
 package searchengine.services;
 import lombok.RequiredArgsConstructor;
-import org.jsoup.Jsoup;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import searchengine.config.SearchConfig;
+import searchengine.contentstore.ContentStore;
+import searchengine.contentstore.PageBody;
+import searchengine.dto.search.SearchCacheStatistics;
 import searchengine.dto.search.SearchResponse;
 import searchengine.dto.search.SearchResult;
 import searchengine.exceptions.BadRequestException;
 import searchengine.model.*;
 import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageIndexRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
+import searchengine.searchindex.CollectionStatistics;
+import searchengine.searchindex.SearchHits;
+import searchengine.searchindex.SearchIndex;
+import searchengine.searchindex.SearchResultCache;
+import searchengine.siteparser.ParsedPage;
 import java.util.*;
 import java.util.stream.Collectors;
 @Service
@@ -21,14 +28,18 @@ public class SearchService {
     private final LemmaFinder lemmaFinder;
     private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
-    private final PageIndexRepository pageIndexRepository;
+    private final ContentStore contentStore;
+    private final SearchIndex searchIndex;
+    private final SearchResultCache searchResultCache;
+    private final CollectionStatistics collectionStatistics;
+    private final SearchConfig searchConfig;
     public SearchResponse search(String query, String site, int offset, int limit) {
         if (query == null || query.trim().isEmpty()) {
             throw new BadRequestException("Задан пустой поисковый запрос");
         }
         Site siteEntity = null;
         if (site != null && !site.isEmpty()) {
-            siteEntity = siteRepository.findByUrl(site);
+            siteEntity = siteRepository.findByUrlAndActiveTrue(site);
             if (siteEntity == null) {
                 throw new BadRequestException("Указанный сайт не существует");
             }
@@ -40,67 +51,44 @@ public class SearchService {
         if (lemmaMap.isEmpty()) {
             return new SearchResponse(true, 0, List.of());
         }
-        long totalPages = (siteEntity != null)
-                ? pageRepository.countBySite(siteEntity)
-                : pageRepository.count();
-        double threshold = totalPages * 0.8;
-        final Site finalSiteEntity = siteEntity;
-        List<Lemma> relevantLemmas = lemmaMap.keySet().stream()
-                .map(name -> finalSiteEntity != null
-                        ? lemmaRepository.findByLemmaAndSite(name, finalSiteEntity).orElse(null)
-                        : lemmaRepository.findByLemma(name).orElse(null))
-                .filter(Objects::nonNull)
-                .filter(lemma -> lemma.getFrequency() < threshold)
-                .sorted(Comparator.comparingInt(Lemma::getFrequency))
-                .collect(Collectors.toList());
-        if (relevantLemmas.isEmpty()) {
-            return new SearchResponse(true, 0, List.of());
+        // Следующие страницы выдачи берутся из кэша, пока индекс сайта не изменился
+        String siteUrl = siteEntity != null ? siteEntity.getUrl() : null;
+        SearchHits hits = searchResultCache.get(lemmaMap.keySet(), siteUrl, offset + limit);
+        if (hits == null) {
+            long generation = searchResultCache.generation(siteUrl);
+            hits = rank(lemmaMap.keySet(), siteEntity, Math.max(offset + limit, searchConfig.getCacheDepth()));
+            searchResultCache.put(lemmaMap.keySet(), siteUrl, generation, hits);
         }
-        Set<Page> finalPages = null;
-        for (Lemma lemma : relevantLemmas) {
-            List<PageIndex> indexes = pageIndexRepository.findByLemma(lemma);
-            Set<Page> pagesForLemma = indexes.stream()
-                    .map(PageIndex::getPage)
-                    .filter(p -> finalSiteEntity == null || p.getSite().equals(finalSiteEntity))
-                    .collect(Collectors.toSet());
-            if (finalPages == null) {
-                finalPages = new HashSet<>(pagesForLemma);
-            } else {
-                finalPages.retainAll(pagesForLemma);
-            }
-            if (finalPages.isEmpty()) {
-                break;
-            }
-        }
-        if (finalPages == null || finalPages.isEmpty()) {
+        if (hits.getTotalHits() == 0) {
             return new SearchResponse(true, 0, List.of());
         }
-        Map<Page, Float> relevance = new HashMap<>();
-        float maxAbsRel = 0f;
-        for (Page page : finalPages) {
-            float absRel = 0f;
-            for (Lemma lemma : relevantLemmas) {
-                absRel += pageIndexRepository.findByPageAndLemma(page, lemma)
-                        .map(PageIndex::getRank)
-                        .orElse(0f);
-            }
-            relevance.put(page, absRel);
-            if (absRel > maxAbsRel) {
-                maxAbsRel = absRel;
-            }
+        final float maxAbsRel = hits.maxScore();
+        int from = Math.min(offset, hits.size());
+        int to = Math.min(offset + limit, hits.size());
+        List<Long> windowIds = new ArrayList<>(to - from);
+        Map<Long, Float> windowScores = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            windowIds.add(hits.getPageIds()[i]);
+            windowScores.put(hits.getPageIds()[i], hits.getScores()[i]);
         }
-        final float finalMaxRel = maxAbsRel;
+        Map<Long, Page> pagesById = pageRepository.findAllById(windowIds).stream()
+                .collect(Collectors.toMap(Page::getId, page -> page));
+        Map<Long, PageBody> bodiesById = contentStore.load(windowIds);
         final Set<String> finalLemmaNames = lemmaMap.keySet();
-        List<SearchResult> results = relevance.entrySet().stream()
-                .sorted(Map.Entry.<Page, Float>comparingByValue().reversed())
-                .skip(offset)
-                .limit(limit)
-                .map(entry -> {
-                    Page page = entry.getKey();
-                    float rel = finalMaxRel == 0 ? 0 : entry.getValue() / finalMaxRel;
-                    String html = page.getContent();
-                    String title = Jsoup.parse(html).title();
-                    String text = lemmaFinder.extractText(html);
+        List<SearchResult> results = windowIds.stream()
+                .filter(pagesById::containsKey)
+                .map(pageId -> {
+                    Page page = pagesById.get(pageId);
+                    float rel = maxAbsRel == 0 ? 0 : windowScores.get(pageId) / maxAbsRel;
+                    PageBody body = bodiesById.get(pageId);
+                    String title = page.getTitle();
+                    String text = body != null ? body.getText() : "";
+                    if (text == null) {
+                        // страница сохранена до появления колонок title/plain_text
+                        ParsedPage parsedPage = ParsedPage.parse(body.getHtml(), page.getSite().getUrl());
+                        title = parsedPage.getTitle();
+                        text = parsedPage.getText();
+                    }
                     String snippet = SnippetBuilder.buildSnippet(text, finalLemmaNames);
                     if (snippet == null) snippet = "";
                     return new SearchResult(
@@ -115,8 +103,41 @@ public class SearchService {
                 .collect(Collectors.toList());
         SearchResponse response = new SearchResponse();
         response.setResult(true);
-        response.setCount(finalPages.size());
+        response.setCount(hits.getTotalHits());
         response.setData(results);
         return response;
     }
-}
\ No newline at end of file
+    // Ранжируем только id и релевантность, страницы потом загружаются лишь для окна offset..offset+limit
+    // Слова, встречающиеся на 80% страниц и чаще, отбрасываются: сравниваем число страниц с леммой, а не сумму вхождений
+    private SearchHits rank(Set<String> lemmas, Site siteEntity, int topK) {
+        long totalPages = 0;
+        for (Site site : siteEntity != null ? List.of(siteEntity) : siteRepository.findAllByActiveTrue()) {
+            totalPages += collectionStatistics.documents(site.getId());
+        }
+        double threshold = totalPages * 0.8;
+        List<Lemma> foundLemmas = siteEntity != null
+                ? lemmaRepository.findByLemmaInAndSite(lemmas, siteEntity)
+                : lemmaRepository.findByLemmaInAndSiteActiveTrue(lemmas);
+        Map<String, Integer> documentsByWord = new HashMap<>();
+        for (Lemma lemma : foundLemmas) {
+            documentsByWord.merge(lemma.getLemma(), lemma.getDocCount(), Integer::sum);
+        }
+        Set<String> relevantWords = documentsByWord.entrySet().stream()
+                .filter(entry -> entry.getValue() < threshold)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        if (relevantWords.isEmpty()) {
+            return SearchHits.EMPTY;
+        }
+        Map<Long, List<Long>> lemmaIdsBySite = foundLemmas.stream()
+                .filter(lemma -> relevantWords.contains(lemma.getLemma()))
+                .collect(Collectors.groupingBy(lemma -> lemma.getSite().getId(),
+                        Collectors.mapping(Lemma::getId, Collectors.toList())));
+        return "any".equals(searchConfig.getMode())
+                ? searchIndex.searchAny(lemmaIdsBySite, topK)
+                : searchIndex.search(lemmaIdsBySite, relevantWords.size(), topK);
+    }
+    public SearchCacheStatistics getCacheStatistics() {
+        return searchResultCache.statistics();
+    }
+}
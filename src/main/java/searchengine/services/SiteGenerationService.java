@@ -0,0 +1,113 @@
+package searchengine.services;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import searchengine.contentstore.ContentStore;
+import searchengine.model.Site;
+import searchengine.model.Status;
+import searchengine.repository.IndexBatchRepository;
+import searchengine.repository.SiteRepository;
+import searchengine.searchindex.CollectionStatistics;
+import searchengine.searchindex.SearchIndex;
+import searchengine.searchindex.SearchResultCache;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+// Переключение поколений сайта: обход строит теневое поколение, которое становится активным
+// одной короткой транзакцией, а старое удаляется в фоне небольшими порциями
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SiteGenerationService {
+    private static final int DELETE_CHUNK_SIZE = 500;
+    private final SiteRepository siteRepository;
+    private final IndexBatchRepository indexBatchRepository;
+    private final SearchIndex searchIndex;
+    private final SearchResultCache searchResultCache;
+    private final CollectionStatistics collectionStatistics;
+    private final ContentStore contentStore;
+    private final ExecutorService cleanupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "site-generation-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    public Site createShadow(String url, String name) {
+        Site site = new Site();
+        site.setUrl(url);
+        site.setName(name);
+        site.setActive(false);
+        site.setStatus(Status.INDEXING);
+        site.setStatusTime(LocalDateTime.now());
+        site.setLastError(null);
+        return siteRepository.save(site);
+    }
+    // Незавершённое теневое поколение, которое продолжит прерванный обход; null, если его уже нет
+    public Site resumeShadow(String url, long siteId) {
+        Site site = siteRepository.findById(siteId)
+                .filter(s -> !s.isActive() && s.getUrl().equals(url))
+                .orElse(null);
+        if (site == null) {
+            return null;
+        }
+        site.setStatus(Status.INDEXING);
+        site.setStatusTime(LocalDateTime.now());
+        site.setLastError(null);
+        return siteRepository.save(site);
+    }
+    @Transactional
+    public void activate(Site shadow) {
+        Site previous = siteRepository.findByUrlAndActiveTrue(shadow.getUrl());
+        if (previous != null) {
+            previous.setActive(false);
+            siteRepository.save(previous);
+        }
+        shadow.setActive(true);
+        siteRepository.save(shadow);
+        log.info("Site {} switched to generation id={}", shadow.getUrl(), shadow.getId());
+        // Результаты, посчитанные на прошлом поколении, перестают находиться после фиксации переключения
+        String url = shadow.getUrl();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                searchResultCache.invalidate(url);
+            }
+        });
+    }
+    // Неактивные поколения сайта (старые и незавершённые теневые), кроме переданного
+    public void dropInactiveAsync(String url, Site keep) {
+        List<Site> inactive = siteRepository.findAllByUrlAndActiveFalse(url);
+        for (Site site : inactive) {
+            if (keep == null || !site.getId().equals(keep.getId())) {
+                long siteId = site.getId();
+                cleanupExecutor.submit(() -> drop(siteId));
+            }
+        }
+    }
+    private void drop(long siteId) {
+        try {
+            long startedAt = System.currentTimeMillis();
+            searchIndex.removeSite(siteId);
+            collectionStatistics.siteRemoved(siteId);
+            int pages = 0;
+            List<Long> pageIds;
+            while (!(pageIds = indexBatchRepository.findPageIds(siteId, DELETE_CHUNK_SIZE)).isEmpty()) {
+                indexBatchRepository.deletePages(pageIds);
+                contentStore.delete(pageIds);
+                pages += pageIds.size();
+            }
+            indexBatchRepository.deleteSite(siteId);
+            log.info("Dropped site generation id={}: {} pages in {} ms", siteId, pages, System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            log.error("Failed to drop site generation id={}: {}", siteId, e.getMessage(), e);
+        }
+    }
+    @PreDestroy
+    public void shutdown() {
+        cleanupExecutor.shutdown();
+    }
+}
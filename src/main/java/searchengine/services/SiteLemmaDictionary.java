@@ -0,0 +1,86 @@
+package searchengine.services;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.repository.IndexBatchRepository;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+// Словарь лемм сайта на время обхода: лемма -> id плюс накопленные изменения частот.
+// Новые леммы вставляются через ON CONFLICT DO NOTHING, частоты и число страниц с леммой сбрасываются в базу пакетами.
+@Slf4j
+public class SiteLemmaDictionary {
+    private static final int FLUSH_THRESHOLD = 5000;
+    private final long siteId;
+    private final IndexBatchRepository indexBatchRepository;
+    private final ConcurrentHashMap<String, Long> lemmaIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Integer> pendingDeltas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Integer> pendingDocCountDeltas = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingUpdates = new AtomicInteger();
+    public SiteLemmaDictionary(long siteId, IndexBatchRepository indexBatchRepository) {
+        this.siteId = siteId;
+        this.indexBatchRepository = indexBatchRepository;
+        lemmaIds.putAll(indexBatchRepository.findLemmaIds(siteId));
+    }
+    public Map<Long, Integer> resolve(Map<String, Integer> counts) {
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 0 && !lemmaIds.containsKey(entry.getKey())) {
+                missing.add(entry.getKey());
+            }
+        }
+        if (!missing.isEmpty()) {
+            lemmaIds.putAll(indexBatchRepository.registerLemmas(siteId, missing));
+        }
+        Map<Long, Integer> ranks = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            Long id = lemmaIds.get(entry.getKey());
+            if (id != null && entry.getValue() > 0) {
+                ranks.put(id, entry.getValue());
+            }
+        }
+        return ranks;
+    }
+    public void addFrequencies(Map<Long, Integer> deltas, int sign) {
+        for (Map.Entry<Long, Integer> entry : deltas.entrySet()) {
+            pendingDeltas.merge(entry.getKey(), sign * entry.getValue(), Integer::sum);
+            // каждая запись — одна страница с леммой
+            pendingDocCountDeltas.merge(entry.getKey(), sign, Integer::sum);
+        }
+        if (pendingUpdates.addAndGet(deltas.size()) >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+    public void flush() {
+        pendingUpdates.set(0);
+        Map<Long, Integer> batch = new HashMap<>();
+        Map<Long, Integer> docCountBatch = new HashMap<>();
+        Set<Long> ids = new HashSet<>(pendingDeltas.keySet());
+        ids.addAll(pendingDocCountDeltas.keySet());
+        for (Long id : ids) {
+            Integer delta = pendingDeltas.remove(id);
+            Integer docCountDelta = pendingDocCountDeltas.remove(id);
+            if ((delta != null && delta != 0) || (docCountDelta != null && docCountDelta != 0)) {
+                batch.put(id, delta != null ? delta : 0);
+                docCountBatch.put(id, docCountDelta != null ? docCountDelta : 0);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            indexBatchRepository.addLemmaFrequencies(batch, docCountBatch);
+        } catch (RuntimeException e) {
+            // Несохранённые изменения возвращаются к накопленным, следующий сброс повторит их
+            batch.forEach((id, delta) -> pendingDeltas.merge(id, delta, Integer::sum));
+            docCountBatch.forEach((id, delta) -> pendingDocCountDeltas.merge(id, delta, Integer::sum));
+            pendingUpdates.addAndGet(batch.size());
+            throw e;
+        }
+        log.debug("Flushed {} lemma frequency updates for site id={}", batch.size(), siteId);
+    }
+    public long getSiteId() {
+        return siteId;
+    }
+    public int size() {
+        return lemmaIds.size();
+    }
+}
@@ -13,8 +13,9 @@ import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
 public class StatisticsServiceImpl implements StatisticsService {
@@ -23,7 +24,11 @@ public class StatisticsServiceImpl implements StatisticsService {
     private final LemmaRepository lemmaRepository;
     @Override
     public StatisticsResponse getStatistics() {
-        List<Site> sitesFromDb = siteRepository.findAll();
+        // Для каждого сайта показываем последнее поколение: во время переиндексации это теневое
+        List<Site> sitesFromDb = new ArrayList<>(siteRepository.findAll().stream()
+                .collect(Collectors.toMap(Site::getUrl, site -> site,
+                        (a, b) -> a.getId() > b.getId() ? a : b, LinkedHashMap::new))
+                .values());
         TotalStatistics total = new TotalStatistics();
         total.setSites(sitesFromDb.size());
         total.setIndexing(true);
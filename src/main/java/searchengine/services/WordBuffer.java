@@ -0,0 +1,59 @@
+package searchengine.services;
+import java.util.Arrays;
+// Переиспользуемый буфер текущего слова токенизатора и ключ кэша лемм: поиск идёт по самому буферу без создания
+// строки, а в map кладётся копия, которую больше никто не меняет. Равен только другому WordBuffer с теми же символами
+final class WordBuffer implements CharSequence {
+    private char[] chars;
+    private int length;
+    WordBuffer() {
+        chars = new char[64];
+    }
+    private WordBuffer(char[] chars) {
+        this.chars = chars;
+        this.length = chars.length;
+    }
+    WordBuffer copy() {
+        return new WordBuffer(Arrays.copyOf(chars, length));
+    }
+    void append(char c) {
+        if (length == chars.length) {
+            chars = Arrays.copyOf(chars, length * 2);
+        }
+        chars[length++] = c;
+    }
+    void clear() {
+        length = 0;
+    }
+    @Override
+    public int length() {
+        return length;
+    }
+    @Override
+    public char charAt(int index) {
+        return chars[index];
+    }
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof WordBuffer)) {
+            return false;
+        }
+        WordBuffer word = (WordBuffer) other;
+        return Arrays.equals(chars, 0, length, word.chars, 0, word.length);
+    }
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
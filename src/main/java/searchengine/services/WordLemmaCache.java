@@ -0,0 +1,60 @@
+package searchengine.services;
+import searchengine.dto.crawler.LemmaCacheStatistics;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+// Кэш словоформа -> лемма из двух поколений: запись идёт в текущее, и когда оно заполнено наполовину ёмкости,
+// оно становится прошлым, а прошлое выбрасывается. Найденное в прошлом поколении переносится в текущее,
+// поэтому частые слова не вытесняются. Чтение без блокировок, в памяти не больше capacity записей.
+// Ключи — WordBuffer: ищется переиспользуемый буфер токенизатора, а в кэш кладётся его неизменяемая копия
+class WordLemmaCache {
+    private final int capacity;
+    private final int generationSize;
+    private volatile ConcurrentHashMap<WordBuffer, String> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<WordBuffer, String> previous = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    WordLemmaCache(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.generationSize = Math.max(this.capacity / 2, 1);
+    }
+    String get(WordBuffer word) {
+        if (capacity == 0) {
+            return null;
+        }
+        String lemma = current.get(word);
+        if (lemma == null) {
+            lemma = previous.get(word);
+            if (lemma != null) {
+                put(word, lemma);
+            }
+        }
+        (lemma != null ? hits : misses).increment();
+        return lemma;
+    }
+    void put(WordBuffer word, String lemma) {
+        if (capacity == 0) {
+            return;
+        }
+        ConcurrentHashMap<WordBuffer, String> generation = current;
+        generation.put(word.copy(), lemma);
+        if (generation.size() >= generationSize) {
+            synchronized (this) {
+                if (current == generation) {
+                    previous = generation;
+                    current = new ConcurrentHashMap<>();
+                }
+            }
+        }
+    }
+    LemmaCacheStatistics statistics() {
+        LemmaCacheStatistics statistics = new LemmaCacheStatistics();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        statistics.setSize(current.size() + previous.size());
+        statistics.setCapacity(capacity);
+        statistics.setHits(hitCount);
+        statistics.setMisses(missCount);
+        statistics.setHitRate(hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount));
+        return statistics;
+    }
+}
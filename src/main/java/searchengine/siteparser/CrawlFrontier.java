@@ -0,0 +1,136 @@
+package searchengine.siteparser;
+import lombok.extern.slf4j.Slf4j;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.TreeSet;
+// Очередь обхода в ширину: адрес и его глубина от главной страницы. В памяти держится не больше memoryLimit адресов, остальные дописываются в файл
+// и читаются обратно по мере опустошения очереди. Пока в файле что-то есть, новые адреса тоже идут в файл,
+// чтобы сохранялся порядок FIFO.
+// Адреса из sitemap с датой изменения идут в отдельную полосу и выдаются раньше, самые свежие первыми;
+// полоса тоже ограничена memoryLimit, вытесненные из неё старые адреса уходят в общую очередь.
+@Slf4j
+class CrawlFrontier implements Closeable {
+    private final ArrayDeque<Entry> memory = new ArrayDeque<>();
+    private final TreeSet<FreshEntry> fresh = new TreeSet<>(Comparator.<FreshEntry>comparingLong(e -> e.lastmod)
+            .thenComparingLong(e -> e.sequence));
+    private long freshSequence;
+    private final int memoryLimit;
+    private final Path spillFile;
+    private DataOutputStream spillOut;
+    private DataInputStream spillIn;
+    private long spilled;
+    private long restored;
+    CrawlFrontier(Path spillFile, int memoryLimit) {
+        this.spillFile = spillFile;
+        this.memoryLimit = Math.max(memoryLimit, 1);
+    }
+    synchronized void add(String url, int depth) {
+        if (spilled == restored && memory.size() < memoryLimit) {
+            memory.add(new Entry(url, depth));
+            return;
+        }
+        try {
+            if (spillOut == null) {
+                Files.createDirectories(spillFile.getParent());
+                spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+            }
+            write(spillOut, url, depth);
+            spilled++;
+        } catch (IOException e) {
+            log.error("Failed to spill URL {} to {}: {}", url, spillFile, e.getMessage());
+        }
+    }
+    synchronized void addFresh(String url, int depth, long lastmod) {
+        if (fresh.size() >= memoryLimit) {
+            if (lastmod <= fresh.first().lastmod) {
+                add(url, depth);
+                return;
+            }
+            FreshEntry evicted = fresh.pollFirst();
+            add(evicted.url, evicted.depth);
+        }
+        fresh.add(new FreshEntry(url, depth, lastmod, freshSequence++));
+    }
+    synchronized Entry poll() {
+        if (!fresh.isEmpty()) {
+            return fresh.pollLast();
+        }
+        if (memory.isEmpty() && spilled > restored) {
+            restore();
+        }
+        return memory.poll();
+    }
+    synchronized long size() {
+        return fresh.size() + memory.size() + spilled - restored;
+    }
+    private void restore() {
+        try {
+            spillOut.flush();
+            if (spillIn == null) {
+                spillIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+            }
+            while (memory.size() < memoryLimit && restored < spilled) {
+                memory.add(read(spillIn));
+                restored++;
+            }
+            if (restored == spilled) {
+                // Файл прочитан полностью — начинаем следующий с нуля
+                closeSpill();
+            }
+        } catch (IOException e) {
+            log.error("Failed to read spilled URLs from {}: {}", spillFile, e.getMessage());
+            closeSpill();
+        }
+    }
+    private void closeSpill() {
+        try {
+            if (spillIn != null) {
+                spillIn.close();
+            }
+            if (spillOut != null) {
+                spillOut.close();
+            }
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            log.warn("Failed to remove frontier spill file {}: {}", spillFile, e.getMessage());
+        }
+        spillIn = null;
+        spillOut = null;
+        spilled = 0;
+        restored = 0;
+    }
+    static void write(DataOutput out, String url, int depth) throws IOException {
+        out.writeShort(Math.min(depth, Short.MAX_VALUE));
+        out.writeUTF(url);
+    }
+    static Entry read(DataInput in) throws IOException {
+        int depth = in.readShort();
+        return new Entry(in.readUTF(), depth);
+    }
+    @Override
+    public synchronized void close() {
+        fresh.clear();
+        memory.clear();
+        closeSpill();
+    }
+    static class Entry {
+        final String url;
+        final int depth;
+        Entry(String url, int depth) {
+            this.url = url;
+            this.depth = depth;
+        }
+    }
+    private static class FreshEntry extends Entry {
+        final long lastmod;
+        final long sequence;
+        FreshEntry(String url, int depth, long lastmod, long sequence) {
+            super(url, depth);
+            this.lastmod = lastmod;
+            this.sequence = sequence;
+        }
+    }
+}
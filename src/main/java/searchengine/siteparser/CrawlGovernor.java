@@ -0,0 +1,98 @@
+package searchengine.siteparser;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerConfig;
+import searchengine.dto.crawler.SiteAllocation;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+// Общий для всех сайтов лимит одновременных загрузок. Ожидающие сайты обслуживаются по кругу:
+// освободившийся слот получает следующий по очереди сайт, а не тот, у которого больше ожидающих страниц.
+// Лимиты на сайт (страниц в работе, всего страниц, глубина) соблюдает сама сессия обхода,
+// одновременность записи в базу ограничена пулом стадии persist.
+@Component
+@RequiredArgsConstructor
+public class CrawlGovernor {
+    private final CrawlerConfig crawlerConfig;
+    private final Set<CrawlSession> sessions = new LinkedHashSet<>();
+    private final Map<CrawlSession, ArrayDeque<CompletableFuture<Void>>> waiting = new HashMap<>();
+    private final ArrayDeque<CrawlSession> rotation = new ArrayDeque<>();
+    private int fetchesInUse;
+    synchronized void register(CrawlSession session) {
+        sessions.add(session);
+    }
+    void unregister(CrawlSession session) {
+        cancel(session);
+        synchronized (this) {
+            sessions.remove(session);
+        }
+    }
+    CompletableFuture<Void> acquireFetch(CrawlSession session) {
+        synchronized (this) {
+            if (rotation.isEmpty() && fetchesInUse < fetchLimit()) {
+                fetchesInUse++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> slot = new CompletableFuture<>();
+            ArrayDeque<CompletableFuture<Void>> queue = waiting.computeIfAbsent(session, s -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                rotation.add(session);
+            }
+            queue.add(slot);
+            return slot;
+        }
+    }
+    void releaseFetch() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            fetchesInUse--;
+            while (fetchesInUse < fetchLimit() && !rotation.isEmpty()) {
+                CrawlSession session = rotation.poll();
+                ArrayDeque<CompletableFuture<Void>> queue = waiting.get(session);
+                CompletableFuture<Void> slot = queue.poll();
+                if (queue.isEmpty()) {
+                    waiting.remove(session);
+                } else {
+                    rotation.add(session);
+                }
+                fetchesInUse++;
+                granted.add(slot);
+            }
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+    // Снимает ожидающие загрузки сайта, например при остановке обхода
+    void cancel(CrawlSession session) {
+        ArrayDeque<CompletableFuture<Void>> queue;
+        synchronized (this) {
+            queue = waiting.remove(session);
+            rotation.remove(session);
+        }
+        if (queue != null) {
+            queue.forEach(slot -> slot.cancel(false));
+        }
+    }
+    public synchronized int getFetchLimit() {
+        return fetchLimit();
+    }
+    public synchronized int getFetchesInUse() {
+        return fetchesInUse;
+    }
+    public List<SiteAllocation> allocations() {
+        List<CrawlSession> snapshot;
+        Map<CrawlSession, Integer> queued = new HashMap<>();
+        synchronized (this) {
+            snapshot = new ArrayList<>(sessions);
+            waiting.forEach((session, queue) -> queued.put(session, queue.size()));
+        }
+        List<SiteAllocation> allocations = new ArrayList<>();
+        for (CrawlSession session : snapshot) {
+            SiteAllocation allocation = session.allocation();
+            allocation.setFetchesWaiting(queued.getOrDefault(session, 0));
+            allocations.add(allocation);
+        }
+        return allocations;
+    }
+    private int fetchLimit() {
+        return Math.max(crawlerConfig.getMaxTotalFetches(), 1);
+    }
+}
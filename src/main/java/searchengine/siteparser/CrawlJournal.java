@@ -0,0 +1,260 @@
+package searchengine.siteparser;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.services.SiteLemmaDictionary;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+// Журнал обхода сайта для продолжения после остановки: только дозапись. После заголовка (id теневого поколения)
+// идут записи «адрес поставлен в очередь» (глубина, адрес, lastmod из sitemap) и «страница обработана» (отпечаток).
+// Сессия только кладёт записи в очередь в памяти; в файл их раз в интервал пишет общий планировщик, не держа
+// блокировку сессии. Перед записью сбрасываются частоты лемм, чтобы база не отставала от журнала.
+// Когда журнал вырастает вдвое против последнего сжатия, он переписывается: отпечатки обработанных страниц
+// и ещё не обработанные адреса. Так суммарный объём записи линеен по размеру обхода.
+@Slf4j
+final class CrawlJournal implements Closeable {
+    private static final int MAGIC = 0x43524b4a;
+    private static final byte ENQUEUED = 1;
+    private static final byte DONE = 2;
+    private static final long NO_LASTMOD = Long.MIN_VALUE;
+    private static final long MIN_COMPACTION_RECORDS = 100_000;
+    private final Path file;
+    private final long siteId;
+    private final SiteLemmaDictionary lemmaDictionary;
+    private final ConcurrentLinkedQueue<Record> pending = new ConcurrentLinkedQueue<>();
+    private DataOutputStream out;
+    private ScheduledFuture<?> flushTask;
+    private long records;
+    private long compactedRecords;
+    CrawlJournal(Path file, long siteId, SiteLemmaDictionary lemmaDictionary) {
+        this.file = file;
+        this.siteId = siteId;
+        this.lemmaDictionary = lemmaDictionary;
+    }
+    static Path pathFor(String directory, String siteUrl) {
+        String url = UrlNormalizer.normalize(siteUrl);
+        return Path.of(directory, "crawl-" + Long.toHexString(UrlNormalizer.fingerprint(url != null ? url : siteUrl)) + ".journal");
+    }
+    // Id поколения из журнала или null, если журнала нет
+    static Long readSiteId(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readHeader(in, file);
+            return in.readLong();
+        }
+    }
+    // Отпечатки всех встреченных адресов попадают в visited, необработанные адреса — снова в очередь в исходном порядке,
+    // включая страницы, которые были в работе. Возвращает число обработанных страниц
+    static long restore(Path file, LongHashSet visited, CrawlFrontier frontier) throws IOException {
+        LongHashSet done = readDone(file);
+        replay(file, new Visitor() {
+            @Override
+            public void enqueued(String url, int depth, long lastmod) {
+                long fingerprint = UrlNormalizer.fingerprint(url);
+                visited.add(fingerprint);
+                if (done.contains(fingerprint)) {
+                    return;
+                }
+                if (lastmod != NO_LASTMOD) {
+                    frontier.addFresh(url, depth, lastmod);
+                } else {
+                    frontier.add(url, depth);
+                }
+            }
+            @Override
+            public void done(long fingerprint) {
+                visited.add(fingerprint);
+            }
+        });
+        return done.size();
+    }
+    // Открывает журнал для дозаписи: продолжаемый сначала сжимается (заодно отбрасывается оборванная последняя запись),
+    // новый создаётся пустым. Дальше записи сбрасываются в файл каждые intervalMs
+    synchronized void open(boolean resume, ScheduledExecutorService scheduler, long intervalMs) throws IOException {
+        Files.createDirectories(file.getParent());
+        if (resume && Files.exists(file)) {
+            compact();
+        } else {
+            try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(file))) {
+                header.writeInt(MAGIC);
+                header.writeLong(siteId);
+            }
+            records = 0;
+            compactedRecords = 0;
+        }
+        out = appender();
+        flushTask = scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+    // Вызывается под блокировкой сессии вместе с изменением очереди, поэтому порядок записей совпадает с порядком событий
+    void enqueued(String url, int depth, Long lastmod) {
+        pending.add(new Record(ENQUEUED, url, depth, lastmod != null ? lastmod : NO_LASTMOD));
+    }
+    void done(String url) {
+        pending.add(new Record(DONE, null, 0, UrlNormalizer.fingerprint(url)));
+    }
+    synchronized void flush() throws IOException {
+        if (out == null) {
+            return;
+        }
+        List<Record> batch = new ArrayList<>();
+        for (Record record; (record = pending.poll()) != null; ) {
+            batch.add(record);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Частоты страниц, отмеченных обработанными, попадают в базу раньше, чем отметки — на диск
+        lemmaDictionary.flush();
+        for (Record record : batch) {
+            write(out, record);
+        }
+        out.flush();
+        records += batch.size();
+        if (records > Math.max(MIN_COMPACTION_RECORDS, compactedRecords * 2)) {
+            out.close();
+            out = null;
+            compact();
+            out = appender();
+        }
+    }
+    @Override
+    public synchronized void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        flushQuietly();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("Failed to close crawl journal {}: {}", file, e.getMessage());
+            }
+            out = null;
+        }
+    }
+    synchronized void delete() {
+        close();
+        pending.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete crawl journal {}: {}", file, e.getMessage());
+        }
+    }
+    private synchronized void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to write crawl journal {}: {}", file, e.getMessage());
+        }
+    }
+    private DataOutputStream appender() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+    }
+    // Переписывает журнал во временный файл и атомарно подменяет, так что на диске всегда целый журнал
+    private void compact() throws IOException {
+        long startedAt = System.currentTimeMillis();
+        LongHashSet done = readDone(file);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] written = {0};
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            compacted.writeInt(MAGIC);
+            compacted.writeLong(siteId);
+            for (long fingerprint : done.toArray()) {
+                write(compacted, new Record(DONE, null, 0, fingerprint));
+                written[0]++;
+            }
+            replay(file, new Visitor() {
+                @Override
+                public void enqueued(String url, int depth, long lastmod) throws IOException {
+                    if (!done.contains(UrlNormalizer.fingerprint(url))) {
+                        write(compacted, new Record(ENQUEUED, url, depth, lastmod));
+                        written[0]++;
+                    }
+                }
+                @Override
+                public void done(long fingerprint) {
+                }
+            });
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = written[0];
+        compactedRecords = written[0];
+        log.debug("Crawl journal {} compacted to {} records in {} ms", file, written[0], System.currentTimeMillis() - startedAt);
+    }
+    private static LongHashSet readDone(Path file) throws IOException {
+        LongHashSet done = new LongHashSet();
+        replay(file, new Visitor() {
+            @Override
+            public void enqueued(String url, int depth, long lastmod) {
+            }
+            @Override
+            public void done(long fingerprint) {
+                done.add(fingerprint);
+            }
+        });
+        return done;
+    }
+    // Оборванная при аварии последняя запись игнорируется
+    private static void replay(Path file, Visitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            readHeader(in, file);
+            in.readLong();
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    return;
+                }
+                if (type == ENQUEUED) {
+                    CrawlFrontier.Entry entry = CrawlFrontier.read(in);
+                    visitor.enqueued(entry.url, entry.depth, in.readLong());
+                } else if (type == DONE) {
+                    visitor.done(in.readLong());
+                } else {
+                    throw new IOException("Corrupted crawl journal " + file);
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("Crawl journal {} ends with a partial record", file);
+        }
+    }
+    private static void readHeader(DataInputStream in, Path file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a crawl journal: " + file);
+        }
+    }
+    private static void write(DataOutputStream out, Record record) throws IOException {
+        out.writeByte(record.type);
+        if (record.type == ENQUEUED) {
+            CrawlFrontier.write(out, record.url, record.depth);
+        }
+        out.writeLong(record.value);
+    }
+    private interface Visitor {
+        void enqueued(String url, int depth, long lastmod) throws IOException;
+        void done(long fingerprint);
+    }
+    // value — lastmod для ENQUEUED и отпечаток адреса для DONE
+    private static class Record {
+        final byte type;
+        final String url;
+        final int depth;
+        final long value;
+        Record(byte type, String url, int depth, long value) {
+            this.type = type;
+            this.url = url;
+            this.depth = depth;
+            this.value = value;
+        }
+    }
+}
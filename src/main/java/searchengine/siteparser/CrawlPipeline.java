@@ -0,0 +1,47 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerConfig;
+import searchengine.dto.crawler.StageStatistics;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+// Общий для всех сайтов конвейер обхода: загрузка -> разбор -> лемматизация -> запись в базу.
+// Загрузка асинхронная и ограничена планировщиком вежливости, остальные стадии — собственными пулами.
+@Component
+@Getter
+public class CrawlPipeline {
+    private final PipelineStage parse;
+    private final PipelineStage lemmatize;
+    private final PipelineStage persist;
+    private final AtomicInteger fetchesInFlight = new AtomicInteger();
+    private final StageMeter fetchMeter = new StageMeter();
+    // Запись журналов обхода всех сайтов: файловый ввод-вывод не занимает потоки стадий
+    private final ScheduledExecutorService journalScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "crawl-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    public CrawlPipeline(CrawlerConfig crawlerConfig) {
+        int capacity = crawlerConfig.getStageQueueCapacity();
+        parse = new PipelineStage("parse", crawlerConfig.getParseWorkers(), capacity);
+        lemmatize = new PipelineStage("lemmatize", crawlerConfig.getLemmatizeWorkers(), capacity);
+        persist = new PipelineStage("persist", crawlerConfig.getPersistWorkers(), capacity);
+    }
+    public List<StageStatistics> statistics() {
+        StageStatistics fetch = new StageStatistics();
+        fetch.setName("fetch");
+        fetch.setActive(fetchesInFlight.get());
+        fetchMeter.fill(fetch);
+        return List.of(fetch, parse.statistics(), lemmatize.statistics(), persist.statistics());
+    }
+    @PreDestroy
+    public void shutdown() {
+        parse.shutdown();
+        lemmatize.shutdown();
+        persist.shutdown();
+        journalScheduler.shutdown();
+    }
+}
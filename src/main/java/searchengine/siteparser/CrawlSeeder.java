@@ -0,0 +1,118 @@
+package searchengine.siteparser;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+// Посев обхода: правила robots.txt и адреса из sitemap. Sitemap и sitemap index читаются потоково,
+// адреса с lastmod ставятся в очередь раньше остальных. Запросы идут через планировщик вежливости.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CrawlSeeder {
+    private final PageFetcher pageFetcher;
+    private final PolitenessScheduler politenessScheduler;
+    private final CrawlerConfig crawlerConfig;
+    // Недоступный или некорректный robots.txt ничего не запрещает. Crawl-delay прошлой загрузки сбрасывается
+    public RobotsRules loadRobots(String siteUrl) {
+        politenessScheduler.setCrawlDelay(siteUrl, 0);
+        String origin = originOf(siteUrl);
+        if (!crawlerConfig.isRespectRobotsTxt() || origin == null) {
+            return RobotsRules.allowAll();
+        }
+        String robotsUrl = origin + "/robots.txt";
+        try {
+            politenessScheduler.acquire(robotsUrl).join();
+            FetchedPage page;
+            try {
+                page = pageFetcher.fetch(robotsUrl).get();
+            } finally {
+                politenessScheduler.release(robotsUrl);
+            }
+            if (page.getStatusCode() >= 400 || page.getBody() == null) {
+                log.info("No robots.txt for {} (HTTP {})", siteUrl, page.getStatusCode());
+                return RobotsRules.allowAll();
+            }
+            RobotsRules rules = RobotsRules.parse(page.getBody(), crawlerConfig.getUserAgent());
+            if (rules.getCrawlDelay() != null) {
+                double delay = Math.min(rules.getCrawlDelay(), crawlerConfig.getMaxCrawlDelaySeconds());
+                politenessScheduler.setCrawlDelay(siteUrl, delay);
+                log.info("Crawl-delay for {}: {} s", siteUrl, delay);
+            }
+            return rules;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RobotsRules.allowAll();
+        } catch (ExecutionException | CompletionException | CancellationException e) {
+            log.warn("Cannot load robots.txt for {}: {}", siteUrl, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return RobotsRules.allowAll();
+        }
+    }
+    // Обходит sitemap из robots.txt (по умолчанию /sitemap.xml) и вложенные sitemap index, возвращает число новых адресов
+    int seed(CrawlSession session, RobotsRules rules) {
+        if (!crawlerConfig.isUseSitemaps()) {
+            return 0;
+        }
+        List<String> declared = rules.getSitemaps();
+        String origin = originOf(session.getSite().getUrl());
+        if (declared.isEmpty() && origin == null) {
+            return 0;
+        }
+        ArrayDeque<String> pending = new ArrayDeque<>(declared.isEmpty() ? List.of(origin + "/sitemap.xml") : declared);
+        Set<String> seen = new HashSet<>(pending);
+        int sitemaps = 0;
+        int[] seeded = new int[1];
+        while (!pending.isEmpty() && sitemaps < crawlerConfig.getMaxSitemaps() && !session.isStopped()) {
+            String sitemapUrl = pending.poll();
+            sitemaps++;
+            try {
+                politenessScheduler.acquire(sitemapUrl).join();
+                // Разрешение вежливости держится всё чтение, поэтому документ ограничен по размеру и времени
+                try (InputStream in = pageFetcher.openStream(sitemapUrl, crawlerConfig.getMaxSitemapSize(),
+                        crawlerConfig.getSitemapTimeoutMs())) {
+                    SitemapParser.parse(in, new SitemapParser.Listener() {
+                        @Override
+                        public void url(String loc, Long lastmod) {
+                            if (session.submitSeed(loc, lastmod)) {
+                                seeded[0]++;
+                            }
+                        }
+                        @Override
+                        public void sitemap(String loc) {
+                            if (seen.add(loc)) {
+                                pending.add(loc);
+                            }
+                        }
+                    });
+                } finally {
+                    politenessScheduler.release(sitemapUrl);
+                }
+            } catch (IOException e) {
+                log.info("Sitemap {} skipped: {}", sitemapUrl, e.getMessage());
+            } catch (CancellationException | CompletionException e) {
+                // обход остановлен, ожидание вежливости отменено
+                break;
+            }
+        }
+        log.info("Seeded {} URLs of {} from {} sitemaps", seeded[0], session.getSite().getUrl(), sitemaps);
+        return seeded[0];
+    }
+    private static String originOf(String url) {
+        try {
+            URI uri = URI.create(url);
+            return uri.getScheme() != null && uri.getRawAuthority() != null
+                    ? uri.getScheme() + "://" + uri.getRawAuthority() : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
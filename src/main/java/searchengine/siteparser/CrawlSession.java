@@ -0,0 +1,380 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.config.CrawlerConfig;
+import searchengine.dto.crawler.SiteAllocation;
+import searchengine.model.Site;
+import searchengine.services.SiteLemmaDictionary;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+// Состояние обхода одного сайта: отпечатки посещённых адресов, очередь обхода в ширину и словарь лемм.
+// Диспетчер берёт из очереди не больше maxInFlight страниц и не больше maxPages за весь обход;
+// страница загружается после разрешения планировщика вежливости и общего слота загрузки
+// и дальше идёт по стадиям конвейера. Постановка адресов в очередь и обработка страниц пишутся в журнал,
+// по которому прерванный обход можно продолжить. Адреса, запрещённые robots.txt, с расширениями нетекстовых
+// файлов и пропущенные прошлыми обходами по заголовкам ответа в очередь не попадают;
+// пока идёт посев из sitemap, обход не считается завершённым, даже если очередь временно пуста.
+@Slf4j
+class CrawlSession implements Closeable {
+    @Getter
+    private final Site site;
+    @Getter
+    private final SiteLemmaDictionary lemmaDictionary;
+    private final LinkParser.Context context;
+    private final String rootUrl;
+    private final CrawlFrontier frontier;
+    private final int maxInFlight;
+    private final int maxPages;
+    private final int maxDepth;
+    private final Path journalFile;
+    private final CrawlJournal journal;
+    private boolean restored;
+    private final Set<String> skippedExtensions = new HashSet<>();
+    private final LongHashSet visited = new LongHashSet();
+    // Адрес страницы в работе -> её глубина
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private long dispatched;
+    private final AtomicInteger fetchesInFlight = new AtomicInteger();
+    @Getter
+    private final AtomicInteger pageCounter = new AtomicInteger();
+    @Getter
+    private final AtomicInteger unchangedCounter = new AtomicInteger();
+    @Getter
+    private final AtomicInteger aliasCounter = new AtomicInteger();
+    // Отпечатки канонических страниц этого обхода для поиска почти-дублей
+    @Getter
+    private final SimHashIndex nearDuplicates;
+    // Активное поколение сайта, из которого берутся валидаторы и индекс неизменившихся страниц
+    @Getter
+    private final Long previousSiteId;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile boolean stopped;
+    private volatile RobotsRules robotsRules = RobotsRules.allowAll();
+    private boolean seeding;
+    CrawlSession(Site site, SiteLemmaDictionary lemmaDictionary, LinkParser.Context context, Long previousSiteId) {
+        CrawlerConfig crawlerConfig = context.getCrawlerConfig();
+        this.site = site;
+        this.lemmaDictionary = lemmaDictionary;
+        this.context = context;
+        this.previousSiteId = previousSiteId;
+        this.rootUrl = UrlNormalizer.normalize(site.getUrl());
+        this.frontier = new CrawlFrontier(Path.of(crawlerConfig.getFrontierDirectory(),
+                "crawl-" + site.getId() + ".frontier"), crawlerConfig.getFrontierMemoryUrls());
+        this.maxInFlight = Math.max(crawlerConfig.getMaxPagesInFlight(), 1);
+        this.maxPages = crawlerConfig.getMaxPagesPerSite();
+        this.maxDepth = crawlerConfig.getMaxDepth();
+        this.journalFile = CrawlJournal.pathFor(crawlerConfig.getFrontierDirectory(), site.getUrl());
+        this.journal = new CrawlJournal(journalFile, site.getId(), lemmaDictionary);
+        this.nearDuplicates = new SimHashIndex(crawlerConfig.getNearDuplicateDistance());
+        crawlerConfig.getSkippedExtensions().forEach(extension -> skippedExtensions.add(extension.toLowerCase()));
+    }
+    // Продолжение прерванного обхода: посещённые адреса и очередь берутся из журнала этого же поколения
+    boolean restore() {
+        try {
+            Long journalSiteId = CrawlJournal.readSiteId(journalFile);
+            if (journalSiteId == null || !journalSiteId.equals(site.getId())) {
+                return false;
+            }
+            long restoredDispatched = CrawlJournal.restore(journalFile, visited, frontier);
+            synchronized (this) {
+                dispatched = restoredDispatched;
+                restored = true;
+            }
+            context.getIndexBatchRepository().findCanonicalSimHashes(site.getId()).forEach(
+                    (path, simHash) -> nearDuplicates.add(simHash, path));
+            log.info("Resuming crawl of {}: {} URLs seen, {} queued", site.getUrl(), visited.size(), frontier.size());
+            return true;
+        } catch (IOException e) {
+            log.warn("Cannot restore crawl journal {}: {}", journalFile, e.getMessage());
+            return false;
+        }
+    }
+    // Отпечатки пропущенных адресов заранее считаются посещёнными; главная страница загружается всегда
+    void excludeSkippedUrls() {
+        CrawlerConfig crawlerConfig = context.getCrawlerConfig();
+        try {
+            List<Long> fingerprints = context.getIndexBatchRepository().findSkippedFingerprints(site.getUrl(),
+                    LocalDateTime.now().minusDays(crawlerConfig.getSkippedUrlTtlDays()));
+            long root = rootUrl != null ? UrlNormalizer.fingerprint(rootUrl) : 0;
+            synchronized (this) {
+                fingerprints.stream().filter(fingerprint -> fingerprint != root).forEach(visited::add);
+            }
+            log.info("Excluded {} previously skipped URLs of {}", fingerprints.size(), site.getUrl());
+        } catch (Exception e) {
+            log.warn("Cannot load skipped URLs of {}: {}", site.getUrl(), e.getMessage());
+        }
+    }
+    void setRobotsRules(RobotsRules robotsRules) {
+        this.robotsRules = robotsRules;
+    }
+    // С seeding обход ждёт finishSeeding, прежде чем считаться завершённым
+    void start(boolean seeding) {
+        boolean resume;
+        synchronized (this) {
+            this.seeding = seeding;
+            resume = restored;
+        }
+        // Без журнала обход идёт как обычно, только не сможет продолжиться после остановки
+        CrawlerConfig crawlerConfig = context.getCrawlerConfig();
+        try {
+            journal.open(resume, context.getPipeline().getJournalScheduler(),
+                    Math.max(crawlerConfig.getCheckpointIntervalMs(), 100));
+        } catch (IOException e) {
+            log.error("Cannot open crawl journal {}: {}", journalFile, e.getMessage());
+        }
+        if (!robotsRules.isAllowed(pathOf(UrlNormalizer.normalize(site.getUrl())))) {
+            log.warn("Root page of {} is disallowed by robots.txt", site.getUrl());
+        }
+        submit(site.getUrl(), 0);
+        dispatch();
+    }
+    void finishSeeding() {
+        synchronized (this) {
+            seeding = false;
+        }
+        dispatch();
+    }
+    // Ставит адрес в очередь, если он внутри сайта, разрешён robots.txt, не глубже лимита и ещё не встречался
+    void submit(String link, int depth) {
+        if (enqueue(link, depth, null)) {
+            dispatch();
+        }
+    }
+    // Адрес из sitemap считается ссылкой с главной страницы; с датой изменения он идёт в полосу свежих
+    boolean submitSeed(String link, Long lastmod) {
+        boolean added = enqueue(link, 1, lastmod);
+        if (added) {
+            dispatch();
+        }
+        return added;
+    }
+    private boolean enqueue(String link, int depth, Long lastmod) {
+        if (stopped || (maxDepth > 0 && depth > maxDepth)) {
+            return false;
+        }
+        String url = UrlNormalizer.normalize(link);
+        if (url == null || rootUrl == null || !url.startsWith(rootUrl) || !robotsRules.isAllowed(pathOf(url))
+                || skippedExtensions.contains(UrlNormalizer.extension(url))) {
+            return false;
+        }
+        // Отпечаток, очередь и журнал меняются вместе, чтобы порядок записей журнала совпадал с очередью
+        synchronized (this) {
+            if (!visited.add(UrlNormalizer.fingerprint(url))) {
+                return false;
+            }
+            if (lastmod != null) {
+                frontier.addFresh(url, depth, lastmod);
+            } else {
+                frontier.add(url, depth);
+            }
+            journal.enqueued(url, depth, lastmod);
+        }
+        return true;
+    }
+    // Конечный адрес редиректа занимается как встреченный, чтобы его содержимое не сохранялось дважды.
+    // false — адрес вне сайта, запрещён robots.txt или уже встречался
+    boolean claimRedirectTarget(String url) {
+        if (rootUrl == null || !url.startsWith(rootUrl) || !robotsRules.isAllowed(pathOf(url))) {
+            return false;
+        }
+        synchronized (this) {
+            return visited.add(UrlNormalizer.fingerprint(url));
+        }
+    }
+    // Путь с query нормализованного адреса — то, с чем сравниваются правила robots.txt
+    private static String pathOf(String url) {
+        if (url == null) {
+            return "/";
+        }
+        int slash = url.indexOf('/', url.indexOf("://") + 3);
+        return slash >= 0 ? url.substring(slash) : "/";
+    }
+    private void dispatch() {
+        while (true) {
+            CrawlFrontier.Entry entry;
+            synchronized (this) {
+                if (stopped || inFlight.size() >= maxInFlight) {
+                    return;
+                }
+                // Лимит страниц исчерпан — оставшаяся очередь не обходится
+                entry = maxPages > 0 && dispatched >= maxPages ? null : frontier.poll();
+                if (entry == null) {
+                    if (inFlight.isEmpty() && !seeding) {
+                        done.complete(null);
+                    }
+                    return;
+                }
+                inFlight.put(entry.url, entry.depth);
+                dispatched++;
+            }
+            crawl(entry.url, entry.depth);
+        }
+    }
+    private void crawl(String url, int depth) {
+        LinkParser parser = new LinkParser(url, depth, this, context);
+        PageVersion previous = parser.lookupPrevious();
+        PolitenessScheduler politenessScheduler = context.getPolitenessScheduler();
+        CrawlPipeline pipeline = context.getPipeline();
+        CompletableFuture<Void> permit = politenessScheduler.acquire(url);
+        permit.thenCompose(ignored -> fetch(url, previous))
+                .whenComplete((page, e) -> {
+                    // Слот соединения освобождается только после передачи страницы в разбор:
+                    // пока стадия разбора переполнена, новые загрузки с этого хоста не начинаются
+                    try {
+                        if (e == null) {
+                            runStage(url, pipeline.getParse(), () -> parser.parse(page),
+                                    () -> runStage(url, pipeline.getLemmatize(), parser::lemmatize,
+                                            () -> runStage(url, pipeline.getPersist(), parser::persist, () -> taskDone(url, true))));
+                        } else {
+                            parser.fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                            // Загрузка, отменённая остановкой, не считается обработкой страницы
+                            taskDone(url, !stopped);
+                        }
+                    } finally {
+                        if (permit.isDone() && !permit.isCompletedExceptionally()) {
+                            politenessScheduler.release(url);
+                        }
+                    }
+                });
+    }
+    // Загрузка начинается, когда общий лимит выдал слот; слот возвращается сразу по получении ответа
+    private CompletableFuture<FetchedPage> fetch(String url, PageVersion previous) {
+        if (stopped) {
+            return CompletableFuture.failedFuture(new CancellationException("crawl stopped"));
+        }
+        CrawlGovernor governor = context.getGovernor();
+        CrawlPipeline pipeline = context.getPipeline();
+        CompletableFuture<Void> slot = governor.acquireFetch(this);
+        return slot.thenCompose(ignored -> {
+            long startedAt = System.nanoTime();
+            fetchesInFlight.incrementAndGet();
+            pipeline.getFetchesInFlight().incrementAndGet();
+            return context.getPageFetcher().fetch(url, previous).whenComplete((page, e) -> {
+                fetchesInFlight.decrementAndGet();
+                pipeline.getFetchesInFlight().decrementAndGet();
+                pipeline.getFetchMeter().record(System.nanoTime() - startedAt);
+            });
+        }).whenComplete((page, e) -> {
+            if (slot.isDone() && !slot.isCompletedExceptionally()) {
+                governor.releaseFetch();
+            }
+        });
+    }
+    // Выполняет шаг в стадии и передаёт страницу дальше, если шаг вернул true; иначе страница выбывает из обхода.
+    // Шаг, пропущенный из-за остановки, оставляет страницу необработанной, чтобы она обошлась при продолжении
+    private void runStage(String url, PipelineStage stage, BooleanSupplier step, Runnable next) {
+        try {
+            stage.submit(() -> {
+                boolean executed = false;
+                boolean proceed = false;
+                try {
+                    if (!stopped) {
+                        executed = true;
+                        proceed = step.getAsBoolean();
+                    }
+                } finally {
+                    if (proceed) {
+                        next.run();
+                    } else {
+                        taskDone(url, executed);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Crawl stage {} rejected a page of {}: {}", stage.getName(), site.getUrl(), e.getMessage());
+            taskDone(url, false);
+        }
+    }
+    // Обработанная страница отмечается в журнале и после остановки: её частоты уже в словаре сайта.
+    // После остановки обход завершается, когда закончатся все начатые страницы
+    private void taskDone(String url, boolean finished) {
+        boolean drained;
+        synchronized (this) {
+            inFlight.remove(url);
+            if (finished) {
+                journal.done(url);
+            }
+            drained = stopped && inFlight.isEmpty();
+        }
+        if (drained) {
+            done.complete(null);
+        } else {
+            dispatch();
+        }
+    }
+    int pageSaved() {
+        return pageCounter.incrementAndGet();
+    }
+    void deleteJournal() {
+        journal.delete();
+    }
+    synchronized SiteAllocation allocation() {
+        SiteAllocation allocation = new SiteAllocation();
+        allocation.setUrl(site.getUrl());
+        allocation.setFetchesInFlight(fetchesInFlight.get());
+        allocation.setPagesInFlight(inFlight.size());
+        allocation.setMaxPagesInFlight(maxInFlight);
+        allocation.setPagesDispatched(dispatched);
+        allocation.setMaxPages(maxPages);
+        allocation.setMaxDepth(maxDepth);
+        allocation.setQueued(frontier.size());
+        return allocation;
+    }
+    boolean isStopped() {
+        return stopped;
+    }
+    void awaitCompletion() {
+        done.join();
+    }
+    // Новые страницы больше не выдаются, ожидающие разрешения загрузки отменяются. Обход считается завершённым,
+    // когда начатые страницы дойдут до конца: только после этого закрывается журнал и сбрасываются частоты лемм
+    void stop() {
+        boolean drained;
+        synchronized (this) {
+            stopped = true;
+            drained = inFlight.isEmpty();
+        }
+        context.getPolitenessScheduler().cancelPending(site.getUrl());
+        context.getGovernor().cancel(this);
+        if (drained) {
+            done.complete(null);
+        }
+    }
+    // При остановке приложения: ждёт начатые страницы не дольше timeoutMs и дописывает журнал
+    void awaitStopped(long timeoutMs) {
+        try {
+            done.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Crawl of {} did not drain in {} ms, unfinished pages will be crawled again", site.getUrl(), timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Crawl of {} failed while stopping: {}", site.getUrl(), e.getMessage());
+        }
+        journal.close();
+    }
+    String getRootUrl() {
+        return rootUrl;
+    }
+    @Override
+    public void close() {
+        journal.close();
+        frontier.close();
+    }
+}
@@ -0,0 +1,34 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+// Ответ сервера после распаковки и декодирования тела. Ответ, отброшенный по заголовкам
+// (не текст или слишком большой), приходит без тела и с причиной в skipReason
+@Getter
+@RequiredArgsConstructor
+public class FetchedPage {
+    private final String url;
+    private final int statusCode;
+    private final String contentType;
+    private final String body;
+    private final String etag;
+    private final String lastModified;
+    private final String skipReason;
+    public boolean isSkipped() {
+        return skipReason != null;
+    }
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+    // Те же типы, что принимал Jsoup: text/*, application/xml и application/*+xml
+    public boolean isText() {
+        return isTextType(contentType);
+    }
+    public static boolean isTextType(String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.startsWith("application/xml")
+                || (type.startsWith("application/") && type.contains("+xml"));
+    }
+}
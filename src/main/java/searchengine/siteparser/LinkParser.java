@@ -1,120 +1,245 @@
 package searchengine.siteparser;
-import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import searchengine.config.CrawlerConfig;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.contentstore.ContentStore;
+import searchengine.contentstore.PageBody;
 import searchengine.model.*;
-import searchengine.repository.PageIndexRepository;
+import searchengine.repository.IndexBatchRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 import searchengine.services.LemmaFinder;
 import searchengine.services.PageProcessingService;
-import java.io.IOException;
+import searchengine.services.SiteLemmaDictionary;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.RecursiveAction;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CancellationException;
+// Одна страница в конвейере обхода. Каждый метод — шаг своей стадии; результат шага хранится
+// в полях до следующей стадии, false означает, что страница дальше не идёт.
 @Slf4j
-public class LinkParser extends RecursiveAction {
-    private final String url;
-    //private final Site site;
-    private final Long siteId;
-    private final SiteRepository siteRepository;
-    private final PageRepository pageRepository;
-    private final CrawlerConfig crawlerConfig;
-    private final PageProcessingService pageProcessingService;
-    private final PageIndexRepository pageIndexRepository;
-    private final LemmaFinder lemmaFinder;
-    private final java.util.concurrent.ConcurrentHashMap.KeySetView<String, Boolean> visitedSet;
+public class LinkParser {
     private static final int UPDATE_INTERVAL = 10;
-    private final java.util.concurrent.ConcurrentHashMap<Site, AtomicInteger> sitePageCounters;
-    public LinkParser(String url,
-                      Long siteId,
-                      SiteRepository siteRepository,
-                      PageRepository pageRepository,
-                      CrawlerConfig crawlerConfig,
-                      PageProcessingService pageProcessingService,
-                      PageIndexRepository pageIndexRepository,
-                      LemmaFinder lemmaFinder,
-                      java.util.concurrent.ConcurrentHashMap.KeySetView<String, Boolean> visitedSet,
-                      java.util.concurrent.ConcurrentHashMap<Site, AtomicInteger> sitePageCounters) {
+    private final String url;
+    private final int depth;
+    private final CrawlSession session;
+    private final Context context;
+    // Адрес и путь, под которыми страница сохраняется: после редиректа — конечные
+    private String pageUrl;
+    private String path;
+    // Версия страницы в активном поколении сайта, если она там есть
+    private PageVersion previous;
+    private PageVersion version;
+    private boolean unchanged;
+    // Уже сохранённая в этом обходе страница, почти-дублем которой оказалась эта
+    private SimHashIndex.Entry duplicateOf;
+    private int statusCode;
+    private ParsedPage parsedPage;
+    private Map<String, Integer> lemmas;
+    LinkParser(String url, int depth, CrawlSession session, Context context) {
         this.url = url;
-        //this.site = site;
-        this.siteId = siteId;
-        this.siteRepository = siteRepository;
-        this.pageRepository = pageRepository;
-        this.crawlerConfig = crawlerConfig;
-        this.pageProcessingService = pageProcessingService;
-        this.pageIndexRepository = pageIndexRepository;
-        this.lemmaFinder = lemmaFinder;
-        this.visitedSet = visitedSet;
-        this.sitePageCounters = sitePageCounters;
-    }
-    @Override
-    protected void compute() {
-        Site site = siteRepository.findById(siteId)
-                .orElseThrow(() -> new IllegalStateException("Site not found: id=" + siteId));
-        try {
-            if (!visitedSet.add(url)) {
-                return;
+        this.depth = depth;
+        this.session = session;
+        this.context = context;
+        this.pageUrl = url;
+        this.path = pathOf(url);
+    }
+    private String pathOf(String pageUrl) {
+        return UrlNormalizer.relativePath(session.getRootUrl(), pageUrl);
+    }
+    // Валидаторы прошлой версии для условного запроса; ошибка поиска просто делает запрос безусловным
+    PageVersion lookupPrevious() {
+        Long previousSiteId = session.getPreviousSiteId();
+        if (previousSiteId != null) {
+            try {
+                previous = context.indexBatchRepository.findPageVersion(previousSiteId, path);
+            } catch (Exception e) {
+                log.warn("Cannot look up previous version of {}: {}", url, e.getMessage());
             }
-            Thread.sleep(500);
-            log.debug("Connecting to URL: {}", url);
-            Connection.Response response = Jsoup.connect(url)
-                    .userAgent(crawlerConfig.getUserAgent())
-                    .referrer(crawlerConfig.getReferrer())
-                    .execute();
-            Document doc = response.parse();
-            int statusCode = response.statusCode();
-            if (statusCode >= 400) {
-                log.warn("Skipping URL with bad status {}: {}", statusCode, url);
-                return;
+        }
+        return previous;
+    }
+    boolean parse(FetchedPage response) {
+        if (!followRedirect(response.getUrl())) {
+            return false;
+        }
+        statusCode = response.getStatusCode();
+        if (response.isNotModified()) {
+            return previous != null && parseUnmodified(response);
+        }
+        if (statusCode >= 400) {
+            log.warn("Skipping URL with bad status {}: {}", statusCode, url);
+            return false;
+        }
+        if (response.isSkipped()) {
+            recordSkipped(response.getSkipReason());
+            return false;
+        }
+        if (!response.isText()) {
+            log.debug("Skipping URL with content type {}: {}", response.getContentType(), url);
+            return false;
+        }
+        try {
+            parsedPage = ParsedPage.parse(response.getBody(), pageUrl);
+        } catch (Exception e) {
+            log.error("Unexpected error during parsing {}: {}", url, e.getMessage(), e);
+            failSite(e);
+            return false;
+        }
+        unchanged = previous != null && previous.getContentHash() != null
+                && previous.getContentHash() == parsedPage.getContentHash();
+        version = new PageVersion(null, statusCode, response.getEtag(), response.getLastModified(), parsedPage.getContentHash(), null);
+        detectDuplicate();
+        submitLinks();
+        return true;
+    }
+    // 304: тела нет, ссылки и текст берутся из сохранённой прошлой версии
+    private boolean parseUnmodified(FetchedPage response) {
+        PageBody body = context.contentStore.load(List.of(previous.getPageId())).get(previous.getPageId());
+        if (body == null) {
+            log.warn("Not modified, but no stored content for previous version of {}", url);
+            return false;
+        }
+        parsedPage = ParsedPage.parse(body.getHtml(), pageUrl);
+        statusCode = previous.getCode();
+        unchanged = true;
+        version = new PageVersion(null, statusCode,
+                response.getEtag() != null ? response.getEtag() : previous.getEtag(),
+                response.getLastModified() != null ? response.getLastModified() : previous.getLastModified(),
+                parsedPage.getContentHash(), null);
+        detectDuplicate();
+        submitLinks();
+        return true;
+    }
+    // После редиректа страница сохраняется и разбирается под конечным адресом. Если он вне сайта или уже встречался
+    // в обходе, страница дальше не идёт: её содержимое сохранит обход самого конечного адреса
+    private boolean followRedirect(String finalUrl) {
+        String target = UrlNormalizer.normalize(finalUrl);
+        if (target == null || target.equals(url)) {
+            return true;
+        }
+        if (!session.claimRedirectTarget(target)) {
+            if (url.equals(session.getRootUrl())) {
+                log.warn("Root page {} redirects to {}, which is outside the site or already crawled", url, target);
+            } else {
+                log.debug("Skipping {}: redirect target {} is outside the site or already crawled", url, target);
             }
-            String path = url.replace(site.getUrl(), "");
+            return false;
+        }
+        pageUrl = target;
+        path = pathOf(target);
+        previous = null;
+        lookupPrevious();
+        return true;
+    }
+    // Отброшенный по заголовкам адрес запоминается, и следующие обходы его не загружают
+    private void recordSkipped(String reason) {
+        log.debug("Skipping URL {}: {}", url, reason);
+        try {
+            context.indexBatchRepository.recordSkippedUrl(session.getSite().getUrl(), UrlNormalizer.fingerprint(url), url, reason);
+        } catch (Exception e) {
+            log.warn("Cannot record skipped URL {}: {}", url, e.getMessage());
+        }
+    }
+    // Прошлая версия-копия не имеет своего индекса, копировать из неё нечего
+    private void detectDuplicate() {
+        if (previous != null && previous.getCanonicalPageId() != null) {
+            unchanged = false;
+        }
+        if (parsedPage.getSimHash() != null) {
+            duplicateOf = session.getNearDuplicates().claim(parsedPage.getSimHash(), path);
+        }
+    }
+    // Ссылки уходят в очередь обхода сразу после разбора, не дожидаясь записи страницы;
+    // чужие и уже встреченные адреса отсекает сессия
+    private void submitLinks() {
+        for (String absHref : parsedPage.getLinks()) {
+            session.submit(absHref, depth + 1);
+        }
+    }
+    boolean lemmatize() {
+        if (!unchanged && duplicateOf == null) {
+            lemmas = context.lemmaFinder.collectLemmas(parsedPage.getText());
+        }
+        return true;
+    }
+    boolean persist() {
+        Site site = session.getSite();
+        try {
             log.debug("Processing page (site={}, path={})", site.getUrl(), path);
-            Optional<Page> existingPageOpt = pageRepository.findByPathAndSite(path, site);
+            SiteLemmaDictionary lemmaDictionary = session.getLemmaDictionary();
+            Optional<Page> existingPageOpt = context.pageRepository.findByPathAndSite(path, site);
             if (existingPageOpt.isPresent()) {
-                pageProcessingService.deletePageAndUpdateLemmas(existingPageOpt.get());
+                context.pageProcessingService.deletePage(existingPageOpt.get(), lemmaDictionary);
             }
-            String html = doc.html();
-            String cleanText = lemmaFinder.extractText(html);
-            Map<String, Integer> lemmas = lemmaFinder.
-                    collectLemmas(cleanText);
-            pageProcessingService.savePageAndLemmas(site, path, statusCode, html, lemmas);
-            sitePageCounters.putIfAbsent(site, new AtomicInteger(0));
-            int count = sitePageCounters.get(site).incrementAndGet();
-            if (count % UPDATE_INTERVAL == 0) {
-                site.setStatusTime(LocalDateTime.now());
-                siteRepository.save(site);
+            Long canonicalPageId = duplicateOf != null ? findCanonicalPageId(site) : null;
+            if (canonicalPageId != null) {
+                context.pageProcessingService.saveAliasPage(site, path, statusCode, parsedPage, version, canonicalPageId);
+                session.getAliasCounter().incrementAndGet();
+                pageSaved(site);
+                return true;
             }
-            Elements links = doc.select("a[href]");
-            Set<LinkParser> tasks = new HashSet<>();
-            for (Element link : links) {
-                String absHref = link.absUrl("href");
-                if (absHref.startsWith(site.getUrl() + "/")
-                        && !absHref.contains("#")
-                        && !absHref.equals(url)) {
-                    tasks.add(new LinkParser(absHref, siteId, siteRepository, pageRepository, crawlerConfig,
-                            pageProcessingService, pageIndexRepository, lemmaFinder, visitedSet, sitePageCounters));
+            Map<Long, Integer> ranks;
+            if (unchanged) {
+                ranks = context.pageProcessingService.copyUnchangedPage(site, path, parsedPage, previous, version);
+                session.getUnchangedCounter().incrementAndGet();
+            } else {
+                if (lemmas == null) {
+                    // Каноническая страница ещё не сохранена — копия индексируется как обычная страница
+                    lemmas = context.lemmaFinder.collectLemmas(parsedPage.getText());
                 }
+                ranks = lemmaDictionary.resolve(lemmas);
+                context.pageProcessingService.savePageAndIndices(site, path, statusCode, parsedPage, version, ranks);
             }
-            invokeAll(tasks);
-        } catch (IOException e) {
-            log.error("IO error while parsing {}: {}", url, e.getMessage());
-            site.setStatus(Status.FAILED);
-            site.setLastError("Ошибка обхода: " + e.getMessage());
-            siteRepository.save(site);
-        } catch (InterruptedException e) {
-            log.warn("Parsing interrupted for {}: {}", url, e.getMessage());
-            Thread.currentThread().interrupt();
+            lemmaDictionary.addFrequencies(ranks, 1);
+            pageSaved(site);
+            return true;
         } catch (Exception e) {
-            log.error("Unexpected error during parsing {}: {}", url, e.getMessage(), e);
+            log.error("Unexpected error while saving {}: {}", url, e.getMessage(), e);
+            failSite(e);
+            return false;
+        }
+    }
+    private Long findCanonicalPageId(Site site) {
+        PageVersion canonical = context.indexBatchRepository.findPageVersion(site.getId(), duplicateOf.path);
+        return canonical != null ? canonical.getPageId() : null;
+    }
+    private void pageSaved(Site site) {
+        if (session.pageSaved() % UPDATE_INTERVAL == 0) {
+            site.setStatusTime(LocalDateTime.now());
+            context.siteRepository.save(site);
+        }
+    }
+    void fail(Throwable e) {
+        if (session.isStopped() || e instanceof CancellationException) {
+            return;
+        }
+        log.error("IO error while fetching {}: {}", url, e.getMessage());
+        failSite(e);
+    }
+    // Ошибка отдельной страницы не прерывает обход; сайт считается неудачным, только если не открылась главная
+    private void failSite(Throwable e) {
+        Site site = session.getSite();
+        if (url.equals(session.getRootUrl()) && !session.isStopped()) {
             site.setStatus(Status.FAILED);
             site.setLastError("Ошибка обхода: " + e.getMessage());
-            siteRepository.save(site);
+            context.siteRepository.save(site);
         }
     }
-}
\ No newline at end of file
+    // Общие для всех обходов компоненты
+    @Getter
+    @RequiredArgsConstructor
+    static class Context {
+        private final SiteRepository siteRepository;
+        private final PageRepository pageRepository;
+        private final PageProcessingService pageProcessingService;
+        private final LemmaFinder lemmaFinder;
+        private final IndexBatchRepository indexBatchRepository;
+        private final ContentStore contentStore;
+        private final PolitenessScheduler politenessScheduler;
+        private final PageFetcher pageFetcher;
+        private final CrawlPipeline pipeline;
+        private final CrawlGovernor governor;
+        private final CrawlerConfig crawlerConfig;
+    }
+}
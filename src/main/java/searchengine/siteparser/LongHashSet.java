@@ -0,0 +1,86 @@
+package searchengine.siteparser;
+// Множество long на открытой адресации без упаковки: около 16 байт на элемент вместо сотен для строки в HashSet.
+// Ноль служит маркером пустой ячейки, поэтому хранится отдельным флагом
+class LongHashSet {
+    private static final int MIN_CAPACITY = 1024;
+    private long[] slots;
+    private int size;
+    private boolean containsZero;
+    LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+    LongHashSet(int expected) {
+        slots = new long[capacityFor(expected)];
+    }
+    synchronized boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        if (!insert(slots, value)) {
+            return false;
+        }
+        if (++size > slots.length * 3 / 4) {
+            long[] grown = new long[slots.length * 2];
+            for (long slot : slots) {
+                if (slot != 0) {
+                    insert(grown, slot);
+                }
+            }
+            slots = grown;
+        }
+        return true;
+    }
+    synchronized boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = slots.length - 1;
+        for (int i = (int) value & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+    synchronized int size() {
+        return size;
+    }
+    // Копия значений, например для сжатия журнала обхода
+    synchronized long[] toArray() {
+        long[] values = new long[size];
+        int n = 0;
+        if (containsZero) {
+            values[n++] = 0;
+        }
+        for (long slot : slots) {
+            if (slot != 0) {
+                values[n++] = slot;
+            }
+        }
+        return values;
+    }
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int i = (int) value & mask;
+        while (table[i] != 0) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        return true;
+    }
+    private static int capacityFor(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expected) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
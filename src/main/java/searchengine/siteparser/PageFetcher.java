@@ -0,0 +1,399 @@
+package searchengine.siteparser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerConfig;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+// Неблокирующая загрузка страниц через общий HttpClient: пул соединений, HTTP/2, сжатие, таймауты
+// и ограничение размера тела. Brotli стандартный клиент не умеет, поэтому запрашиваются только gzip и deflate.
+// Решение о теле принимается по заголовкам: нетекстовый ответ или ответ больше лимита не скачивается,
+// а превысивший лимит по ходу загрузки обрывается; такая страница возвращается как пропущенная.
+@Component
+@Slf4j
+public class PageFetcher {
+    private static final Pattern META_CHARSET = Pattern.compile("(?i)<meta[^>]+charset\\s*=\\s*[\"']?([\\w-]+)");
+    private static final int CHARSET_SNIFF_LENGTH = 2048;
+    private final CrawlerConfig crawlerConfig;
+    private final HttpClient client;
+    public PageFetcher(CrawlerConfig crawlerConfig) {
+        this.crawlerConfig = crawlerConfig;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(crawlerConfig.getConnectTimeoutMs()))
+                .build();
+    }
+    public CompletableFuture<FetchedPage> fetch(String url) {
+        return fetch(url, null);
+    }
+    // С валидаторами прошлой версии страницы запрос условный: неизменившаяся страница придёт как 304 без тела
+    public CompletableFuture<FetchedPage> fetch(String url, PageVersion previous) {
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = newRequest(url)
+                    .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                    .header("Accept-Encoding", "gzip, deflate");
+            if (crawlerConfig.getUserAgent() != null) {
+                builder.header("User-Agent", crawlerConfig.getUserAgent());
+            }
+            if (crawlerConfig.getReferrer() != null) {
+                builder.header("Referer", crawlerConfig.getReferrer());
+            }
+            if (previous != null && previous.getEtag() != null) {
+                builder.header("If-None-Match", previous.getEtag());
+            }
+            if (previous != null && previous.getLastModified() != null) {
+                builder.header("If-Modified-Since", previous.getLastModified());
+            }
+            request = builder.GET().build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Некорректный адрес: " + url, e));
+        }
+        int maxBodySize = crawlerConfig.getMaxBodySize();
+        int fetchTimeoutMs = crawlerConfig.getFetchTimeoutMs();
+        // Таймаут запроса ограничивает только ожидание заголовков; тело, которое перестало приходить,
+        // обрывается общим сроком обмена, иначе страница навсегда держит слоты вежливости и загрузки
+        AtomicReference<HttpResponse.BodySubscriber<RawBody>> subscriber = new AtomicReference<>();
+        return client.sendAsync(request, info -> {
+                    HttpResponse.BodySubscriber<RawBody> body = bodySubscriber(info, maxBodySize);
+                    subscriber.set(body);
+                    return body;
+                })
+                .orTimeout(fetchTimeoutMs, TimeUnit.MILLISECONDS)
+                .handle((response, e) -> {
+                    if (e == null) {
+                        return toPage(response, maxBodySize);
+                    }
+                    if (e instanceof TimeoutException) {
+                        if (subscriber.get() instanceof LimitedBodySubscriber) {
+                            ((LimitedBodySubscriber) subscriber.get()).cancel();
+                        }
+                        throw new CompletionException(new HttpTimeoutException(
+                                "Загрузка не завершилась за " + fetchTimeoutMs + " мс: " + url));
+                    }
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                });
+    }
+    // HTTP/2 только через TLS: для http:// клиент пытался бы обновиться до h2c заголовком Upgrade,
+    // который часть серверов обрабатывает неправильно
+    private HttpRequest.Builder newRequest(String url) {
+        URI uri = URI.create(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(crawlerConfig.getReadTimeoutMs()));
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        return builder;
+    }
+    private static HttpResponse.BodySubscriber<RawBody> bodySubscriber(HttpResponse.ResponseInfo info, int maxBodySize) {
+        boolean success = info.statusCode() >= 200 && info.statusCode() < 300;
+        String contentType = info.headers().firstValue("Content-Type").orElse(null);
+        if (success && !FetchedPage.isTextType(contentType)) {
+            return new SkippingBodySubscriber("Неподдерживаемый тип содержимого: " + contentType);
+        }
+        long declaredLength = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (declaredLength > maxBodySize) {
+            return new SkippingBodySubscriber(tooLarge(maxBodySize));
+        }
+        return new LimitedBodySubscriber(maxBodySize);
+    }
+    private static String tooLarge(int maxBodySize) {
+        return "Размер страницы превышает " + maxBodySize + " байт";
+    }
+    // Блокирующая потоковая загрузка большого документа (sitemap): сжатие снимается на лету,
+    // чтение ограничено maxBytes байтами и сроком timeoutMs на весь документ
+    public InputStream openStream(String url, long maxBytes, int timeoutMs) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = newRequest(url).header("Accept-Encoding", "gzip, deflate");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Некорректный адрес: " + url, e);
+        }
+        if (crawlerConfig.getUserAgent() != null) {
+            builder.header("User-Agent", crawlerConfig.getUserAgent());
+        }
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(builder.GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Загрузка прервана: " + url, e);
+        }
+        if (response.statusCode() >= 400) {
+            response.body().close();
+            throw new IOException("Ошибка загрузки " + url + ": HTTP " + response.statusCode());
+        }
+        InputStream body = response.body();
+        LimitedStream limited = new LimitedStream(body, url, maxBytes, timeoutMs);
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim().toLowerCase();
+        try {
+            switch (encoding) {
+                case "gzip":
+                case "x-gzip":
+                    return new LimitedStream(new GZIPInputStream(limited), limited);
+                case "deflate":
+                    return new LimitedStream(new InflaterInputStream(limited), limited);
+                default:
+                    return limited;
+            }
+        } catch (IOException e) {
+            limited.close();
+            throw e;
+        }
+    }
+    private FetchedPage toPage(HttpResponse<RawBody> response, int maxBodySize) {
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        RawBody body = response.body();
+        if (body.skipReason != null) {
+            return new FetchedPage(response.uri().toString(), response.statusCode(), contentType, null,
+                    etag, lastModified, body.skipReason);
+        }
+        try {
+            byte[] raw = decompress(body.bytes, encoding.trim().toLowerCase(), maxBodySize);
+            return new FetchedPage(response.uri().toString(), response.statusCode(), contentType,
+                    new String(raw, charsetOf(contentType, raw)), etag, lastModified, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    private static byte[] decompress(byte[] body, String encoding, int maxBodySize) throws IOException {
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return readLimited(new GZIPInputStream(new ByteArrayInputStream(body)), maxBodySize);
+            case "deflate":
+                // Часть серверов отдаёт deflate без zlib-заголовка
+                try {
+                    return readLimited(new InflaterInputStream(new ByteArrayInputStream(body)), maxBodySize);
+                } catch (ZipException e) {
+                    return readLimited(new InflaterInputStream(new ByteArrayInputStream(body), new Inflater(true)), maxBodySize);
+                }
+            default:
+                return body;
+        }
+    }
+    private static byte[] readLimited(InputStream in, int maxBodySize) throws IOException {
+        try (in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxBodySize) {
+                    throw new IOException(tooLarge(maxBodySize));
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+    // Кодировка из Content-Type, иначе из meta charset в начале документа, иначе UTF-8
+    private static Charset charsetOf(String contentType, byte[] body) {
+        String name = null;
+        if (contentType != null) {
+            int idx = contentType.toLowerCase().indexOf("charset=");
+            if (idx >= 0) {
+                name = contentType.substring(idx + 8).replace("\"", "").split(";")[0].trim();
+            }
+        }
+        if (name == null) {
+            String head = new String(body, 0, Math.min(body.length, CHARSET_SNIFF_LENGTH), StandardCharsets.ISO_8859_1);
+            Matcher matcher = META_CHARSET.matcher(head);
+            if (matcher.find()) {
+                name = matcher.group(1);
+            }
+        }
+        try {
+            return name != null ? Charset.forName(name) : StandardCharsets.UTF_8;
+        } catch (IllegalArgumentException e) {
+            log.debug("Unknown charset {}, falling back to UTF-8", name);
+            return StandardCharsets.UTF_8;
+        }
+    }
+    // Поток с пределом размера и сроком: исходный поток тела закрывается по истечении срока, что будит поток,
+    // заблокированный в чтении. Дочитанный или закрытый поток снимает таймер.
+    // Для сжатого ответа внешний поток считает распакованные байты, внутренний — пришедшие по сети
+    private static class LimitedStream extends FilterInputStream {
+        private final String url;
+        private final long maxBytes;
+        private final int timeoutMs;
+        private final LimitedStream source;
+        // true — срок истёк, false — поток завершён раньше срока
+        private final CompletableFuture<Boolean> deadline = new CompletableFuture<>();
+        private volatile boolean expired;
+        private long read;
+        LimitedStream(InputStream in, String url, long maxBytes, int timeoutMs) {
+            super(in);
+            this.url = url;
+            this.maxBytes = maxBytes;
+            this.timeoutMs = timeoutMs;
+            this.source = this;
+            deadline.completeOnTimeout(true, timeoutMs, TimeUnit.MILLISECONDS).thenAccept(timedOut -> {
+                if (timedOut) {
+                    expire();
+                }
+            });
+        }
+        LimitedStream(InputStream in, LimitedStream source) {
+            super(in);
+            this.url = source.url;
+            this.maxBytes = source.maxBytes;
+            this.timeoutMs = source.timeoutMs;
+            this.source = source;
+        }
+        private void expire() {
+            expired = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Cannot close expired stream {}: {}", url, e.getMessage());
+            }
+        }
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count;
+            try {
+                count = in.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw source.expired ? new HttpTimeoutException("Загрузка не завершилась за " + timeoutMs + " мс: " + url) : e;
+            }
+            if (count == -1) {
+                source.deadline.complete(false);
+            }
+            if (count > 0 && (read += count) > maxBytes) {
+                throw new IOException("Размер документа превышает " + maxBytes + " байт: " + url);
+            }
+            return count;
+        }
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+        @Override
+        public void close() throws IOException {
+            source.deadline.complete(false);
+            super.close();
+        }
+    }
+    // Тело ответа или причина, по которой оно не скачивалось
+    private static class RawBody {
+        private final byte[] bytes;
+        private final String skipReason;
+        RawBody(byte[] bytes, String skipReason) {
+            this.bytes = bytes;
+            this.skipReason = skipReason;
+        }
+    }
+    // Сразу отменяет получение тела: соединение не тратится на ненужные байты
+    private static class SkippingBodySubscriber implements HttpResponse.BodySubscriber<RawBody> {
+        private final CompletableFuture<RawBody> result;
+        SkippingBodySubscriber(String reason) {
+            this.result = CompletableFuture.completedFuture(new RawBody(null, reason));
+        }
+        @Override
+        public CompletionStage<RawBody> getBody() {
+            return result;
+        }
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.cancel();
+        }
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+        }
+        @Override
+        public void onError(Throwable throwable) {
+        }
+        @Override
+        public void onComplete() {
+        }
+    }
+    // Собирает тело в память и обрывает загрузку, как только превышен лимит
+    private static class LimitedBodySubscriber implements HttpResponse.BodySubscriber<RawBody> {
+        private final int maxBytes;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final CompletableFuture<RawBody> result = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+        LimitedBodySubscriber(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+        // Обрыв по истечении срока загрузки: соединение освобождается, дальнейшие байты игнорируются
+        void cancel() {
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            result.completeExceptionally(new CancellationException("fetch timed out"));
+        }
+        @Override
+        public CompletionStage<RawBody> getBody() {
+            return result;
+        }
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if (result.isDone()) {
+                return;
+            }
+            for (ByteBuffer item : items) {
+                if (buffer.size() + item.remaining() > maxBytes) {
+                    subscription.cancel();
+                    result.complete(new RawBody(null, tooLarge(maxBytes)));
+                    return;
+                }
+                byte[] chunk = new byte[item.remaining()];
+                item.get(chunk);
+                buffer.write(chunk, 0, chunk.length);
+            }
+        }
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+        @Override
+        public void onComplete() {
+            result.complete(new RawBody(buffer.toByteArray(), null));
+        }
+    }
+}
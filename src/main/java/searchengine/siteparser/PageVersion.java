@@ -0,0 +1,15 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+// Версия страницы для условного повторного обхода: валидаторы HTTP и хэш содержимого.
+// pageId и code заполнены для версии, уже сохранённой в базе, canonicalPageId — если она сохранена как копия другой страницы
+@Getter
+@RequiredArgsConstructor
+public class PageVersion {
+    private final Long pageId;
+    private final int code;
+    private final String etag;
+    private final String lastModified;
+    private final Long contentHash;
+    private final Long canonicalPageId;
+}
@@ -0,0 +1,80 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import org.jsoup.Jsoup;
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+// Результат единственного разбора страницы: заголовок, видимый текст, ссылки и исходный HTML
+@Getter
+public class ParsedPage {
+    private final String title;
+    private final String text;
+    private final List<String> links;
+    private final String html;
+    // 64 бита SHA-256 от заголовка и текста: по нему повторный обход узнаёт неизменившуюся страницу
+    private final long contentHash;
+    // SimHash видимого текста для поиска почти-дублей, null для слишком короткого текста
+    private final Long simHash;
+    private ParsedPage(String title, String text, List<String> links, String html) {
+        this.title = title;
+        this.text = text;
+        this.links = links;
+        this.html = html;
+        this.contentHash = hash(title, text);
+        this.simHash = SimHash.compute(text);
+    }
+    public static ParsedPage parse(String html, String baseUri) {
+        Document doc = Jsoup.parse(html, baseUri);
+        TextAndLinksCollector collector = new TextAndLinksCollector();
+        NodeTraversor.traverse(collector, doc);
+        return new ParsedPage(doc.title(), collector.text.toString().trim(), collector.links, html);
+    }
+    private static long hash(String title, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(title.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    private static class TextAndLinksCollector implements NodeVisitor {
+        private final StringBuilder text = new StringBuilder();
+        private final List<String> links = new ArrayList<>();
+        @Override
+        public void head(Node node, int depth) {
+            if (node instanceof TextNode) {
+                StringUtil.appendNormalisedWhitespace(text, ((TextNode) node).getWholeText(), lastIsSpace());
+            } else if (node instanceof Element) {
+                Element element = (Element) node;
+                if (element.normalName().equals("a") && element.hasAttr("href")) {
+                    links.add(element.absUrl("href"));
+                }
+                if ((element.isBlock() || element.normalName().equals("br")) && !lastIsSpace()) {
+                    text.append(' ');
+                }
+            }
+        }
+        @Override
+        public void tail(Node node, int depth) {
+            if (node instanceof Element && ((Element) node).isBlock() && !lastIsSpace()) {
+                text.append(' ');
+            }
+        }
+        private boolean lastIsSpace() {
+            return text.length() == 0 || text.charAt(text.length() - 1) == ' ';
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import searchengine.dto.crawler.StageStatistics;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+// Стадия конвейера обхода: свой пул потоков и ограниченная очередь перед ним.
+// Если очередь заполнена, submit блокирует вызывающий поток — так давление передаётся предыдущей стадии.
+@Slf4j
+class PipelineStage {
+    @Getter
+    private final String name;
+    private final int workers;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+    private final StageMeter meter = new StageMeter();
+    PipelineStage(String name, int workers, int queueCapacity) {
+        this.name = name;
+        this.workers = Math.max(workers, 1);
+        this.queueCapacity = Math.max(queueCapacity, 1);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.workers, this.workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity), r -> {
+            Thread thread = new Thread(r, "crawl-" + name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (task, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("Stage " + name + " is shut down");
+            }
+            try {
+                pool.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for stage " + name, e);
+            }
+        });
+    }
+    void submit(Runnable task) {
+        executor.execute(() -> {
+            long startedAt = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Unexpected error in crawl stage {}: {}", name, e.getMessage(), e);
+            } finally {
+                meter.record(System.nanoTime() - startedAt);
+            }
+        });
+    }
+    StageStatistics statistics() {
+        StageStatistics statistics = new StageStatistics();
+        statistics.setName(name);
+        statistics.setWorkers(workers);
+        statistics.setActive(executor.getActiveCount());
+        statistics.setQueued(executor.getQueue().size());
+        statistics.setQueueCapacity(queueCapacity);
+        meter.fill(statistics);
+        return statistics;
+    }
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
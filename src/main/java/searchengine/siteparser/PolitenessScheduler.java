@@ -0,0 +1,131 @@
+package searchengine.siteparser;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerConfig;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+// Планировщик запросов по хостам: token bucket на частоту и лимит одновременных соединений.
+// Ожидающие запросы отпускаются таймером, потоки пула при этом не блокируются.
+@Component
+@RequiredArgsConstructor
+public class PolitenessScheduler {
+    private final CrawlerConfig crawlerConfig;
+    private final Map<String, HostBucket> buckets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "politeness-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Завершается, когда для хоста освободился токен и слот соединения; слот нужно вернуть через release
+    public CompletableFuture<Void> acquire(String url) {
+        HostBucket bucket = buckets.computeIfAbsent(hostOf(url), host -> new HostBucket(
+                crawlerConfig.getRequestsPerSecond(), crawlerConfig.getMaxConnectionsPerHost()));
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized (bucket) {
+            bucket.waiters.add(permit);
+        }
+        drain(bucket);
+        return permit;
+    }
+    // Crawl-delay из только что загруженного robots.txt: частота хоста не выше одного запроса за delaySeconds.
+    // Вызывается при каждой загрузке robots.txt, 0 — задержки нет, и частота возвращается к настройке
+    public void setCrawlDelay(String url, double delaySeconds) {
+        HostBucket bucket = buckets.computeIfAbsent(hostOf(url), host -> new HostBucket(
+                crawlerConfig.getRequestsPerSecond(), crawlerConfig.getMaxConnectionsPerHost()));
+        synchronized (bucket) {
+            bucket.refill(System.nanoTime());
+            bucket.rate = delaySeconds > 0 ? Math.min(bucket.configuredRate, 1 / delaySeconds) : bucket.configuredRate;
+        }
+    }
+    public void release(String url) {
+        HostBucket bucket = buckets.get(hostOf(url));
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            bucket.active--;
+        }
+        drain(bucket);
+    }
+    // Отменяет ещё не выданные разрешения, например при остановке индексации
+    public void cancelPending(String url) {
+        HostBucket bucket = buckets.get(hostOf(url));
+        if (bucket == null) {
+            return;
+        }
+        List<CompletableFuture<Void>> cancelled;
+        synchronized (bucket) {
+            cancelled = new ArrayList<>(bucket.waiters);
+            bucket.waiters.clear();
+        }
+        cancelled.forEach(permit -> permit.cancel(false));
+    }
+    // Забывает хост после окончания обхода сайта, если у него не осталось запросов в работе и в ожидании
+    public void removeHost(String url) {
+        buckets.computeIfPresent(hostOf(url), (host, bucket) -> {
+            synchronized (bucket) {
+                return bucket.active == 0 && bucket.waiters.isEmpty() ? null : bucket;
+            }
+        });
+    }
+    private void drain(HostBucket bucket) {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (bucket) {
+            bucket.refill(System.nanoTime());
+            while (!bucket.waiters.isEmpty() && bucket.active < bucket.maxConnections && bucket.tokens >= 1) {
+                bucket.tokens--;
+                bucket.active++;
+                granted.add(bucket.waiters.poll());
+            }
+            if (!bucket.waiters.isEmpty() && bucket.active < bucket.maxConnections && !bucket.timerScheduled) {
+                long delayNanos = (long) ((1 - bucket.tokens) / bucket.rate * 1_000_000_000L);
+                bucket.timerScheduled = true;
+                timer.schedule(() -> {
+                    synchronized (bucket) {
+                        bucket.timerScheduled = false;
+                    }
+                    drain(bucket);
+                }, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+            }
+        }
+        // Продолжения запускаются вне блокировки корзины
+        granted.forEach(permit -> permit.complete(null));
+    }
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : url;
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+    private static class HostBucket {
+        private final double configuredRate;
+        private double rate;
+        private final int maxConnections;
+        private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        // Ёмкость корзины — один токен: запросы к хосту идут без всплесков
+        private double tokens = 1;
+        private long refilledAt = System.nanoTime();
+        private int active;
+        private boolean timerScheduled;
+        HostBucket(double rate, int maxConnections) {
+            this.configuredRate = rate > 0 ? rate : 1;
+            this.rate = configuredRate;
+            this.maxConnections = Math.max(maxConnections, 1);
+        }
+        void refill(long now) {
+            tokens = Math.min(1, tokens + (now - refilledAt) * rate / 1_000_000_000L);
+            refilledAt = now;
+        }
+    }
+}
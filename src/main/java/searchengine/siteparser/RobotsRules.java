@@ -0,0 +1,138 @@
+package searchengine.siteparser;
+import lombok.Getter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+// Правила robots.txt для нашего User-Agent: Allow/Disallow с шаблонами * и $, Crawl-delay и адреса sitemap.
+// Побеждает самое длинное совпавшее правило, при равной длине — Allow
+public class RobotsRules {
+    private static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), null, List.of());
+    private final List<Rule> rules;
+    @Getter
+    private final Double crawlDelay;
+    @Getter
+    private final List<String> sitemaps;
+    private RobotsRules(List<Rule> rules, Double crawlDelay, List<String> sitemaps) {
+        this.rules = rules;
+        this.crawlDelay = crawlDelay;
+        this.sitemaps = sitemaps;
+    }
+    public static RobotsRules allowAll() {
+        return ALLOW_ALL;
+    }
+    // Берётся группа с самым длинным именем агента, входящим в наш User-Agent, иначе группа "*"
+    public static RobotsRules parse(String text, String userAgent) {
+        String agent = userAgent != null ? userAgent.toLowerCase(Locale.ROOT) : "";
+        List<String> sitemaps = new ArrayList<>();
+        List<Group> groups = new ArrayList<>();
+        Group current = null;
+        boolean readingAgents = false;
+        for (String rawLine : text.split("\\r?\\n|\\r")) {
+            int comment = rawLine.indexOf('#');
+            String line = (comment >= 0 ? rawLine.substring(0, comment) : rawLine).trim();
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            switch (key) {
+                case "user-agent":
+                    if (!readingAgents) {
+                        current = new Group();
+                        groups.add(current);
+                        readingAgents = true;
+                    }
+                    current.agents.add(value.toLowerCase(Locale.ROOT));
+                    break;
+                case "allow":
+                case "disallow":
+                    readingAgents = false;
+                    // Пустой Disallow ничего не запрещает
+                    if (current != null && !value.isEmpty()) {
+                        current.rules.add(new Rule(value, key.equals("allow")));
+                    }
+                    break;
+                case "crawl-delay":
+                    readingAgents = false;
+                    if (current != null) {
+                        try {
+                            current.crawlDelay = Double.parseDouble(value);
+                        } catch (NumberFormatException ignored) {
+                            // некорректное значение пропускаем
+                        }
+                    }
+                    break;
+                case "sitemap":
+                    if (!value.isEmpty()) {
+                        sitemaps.add(value);
+                    }
+                    break;
+                default:
+                    readingAgents = false;
+            }
+        }
+        Group selected = null;
+        int selectedLength = -1;
+        for (Group group : groups) {
+            for (String name : group.agents) {
+                int length = name.equals("*") ? 0 : (agent.contains(name) ? name.length() : -1);
+                if (length > selectedLength) {
+                    selected = group;
+                    selectedLength = length;
+                }
+            }
+        }
+        return selected == null ? new RobotsRules(List.of(), null, sitemaps)
+                : new RobotsRules(selected.rules, selected.crawlDelay, sitemaps);
+    }
+    // pathAndQuery — путь с query, начиная со слэша
+    public boolean isAllowed(String pathAndQuery) {
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.matches(pathAndQuery) && (best == null || rule.pattern.length() > best.pattern.length()
+                    || (rule.pattern.length() == best.pattern.length() && rule.allow))) {
+                best = rule;
+            }
+        }
+        return best == null || best.allow;
+    }
+    private static class Group {
+        private final List<String> agents = new ArrayList<>();
+        private final List<Rule> rules = new ArrayList<>();
+        private Double crawlDelay;
+    }
+    private static class Rule {
+        private final String pattern;
+        private final boolean allow;
+        Rule(String pattern, boolean allow) {
+            this.pattern = pattern;
+            this.allow = allow;
+        }
+        boolean matches(String path) {
+            boolean anchored = pattern.endsWith("$");
+            String body = anchored ? pattern.substring(0, pattern.length() - 1) : pattern;
+            return matches(body, 0, path, 0, anchored);
+        }
+        // Сопоставление с * (любая последовательность) от начала пути; $ требует совпадения до конца
+        private static boolean matches(String pattern, int p, String path, int s, boolean anchored) {
+            while (p < pattern.length()) {
+                char c = pattern.charAt(p);
+                if (c == '*') {
+                    for (int i = s; i <= path.length(); i++) {
+                        if (matches(pattern, p + 1, path, i, anchored)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if (s >= path.length() || path.charAt(s) != c) {
+                    return false;
+                }
+                p++;
+                s++;
+            }
+            return !anchored || s == path.length();
+        }
+    }
+}
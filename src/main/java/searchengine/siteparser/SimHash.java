@@ -0,0 +1,60 @@
+package searchengine.siteparser;
+// SimHash текста по парам соседних слов: у почти одинаковых текстов отпечатки отличаются в немногих битах.
+// Слова — последовательности букв и цифр в нижнем регистре; строки не создаются, хэш считается по символам
+public final class SimHash {
+    // На коротких текстах отпечаток неустойчив, такие страницы в поиске дублей не участвуют
+    static final int MIN_WORDS = 20;
+    private SimHash() {
+    }
+    // null, если в тексте меньше MIN_WORDS слов
+    public static Long compute(String text) {
+        int[] weights = new int[64];
+        int words = 0;
+        long previous = 0;
+        long hash = 0xcbf29ce484222325L;
+        boolean inWord = false;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hash = (hash ^ Character.toLowerCase(c)) * 0x100000001b3L;
+                inWord = true;
+                continue;
+            }
+            if (!inWord) {
+                continue;
+            }
+            if (words > 0) {
+                long shingle = mix(previous * 0x9e3779b97f4a7c15L + hash);
+                for (int bit = 0; bit < 64; bit++) {
+                    weights[bit] += ((shingle >>> bit) & 1) != 0 ? 1 : -1;
+                }
+            }
+            words++;
+            previous = hash;
+            hash = 0xcbf29ce484222325L;
+            inWord = false;
+        }
+        if (words < MIN_WORDS) {
+            return null;
+        }
+        long result = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                result |= 1L << bit;
+            }
+        }
+        return result;
+    }
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+    // Финальное перемешивание из MurmurHash3
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,70 @@
+package searchengine.siteparser;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+// Отпечатки страниц одного обхода для поиска почти-дублей. 64 бита делятся на maxDistance + 1 полос:
+// у отпечатков на расстоянии не больше maxDistance хотя бы одна полоса совпадает целиком,
+// поэтому сравниваются только отпечатки из общих корзин полос
+class SimHashIndex {
+    private static final int MAX_DISTANCE_LIMIT = 7;
+    private final int maxDistance;
+    private final int bands;
+    private final int bandBits;
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+    private int size;
+    // Отрицательное расстояние отключает поиск дублей
+    SimHashIndex(int maxDistance) {
+        this.maxDistance = Math.min(maxDistance, MAX_DISTANCE_LIMIT);
+        this.bands = Math.max(this.maxDistance + 1, 1);
+        this.bandBits = 64 / bands;
+    }
+    // Возвращает ранее добавленную страницу на расстоянии не больше maxDistance;
+    // если такой нет, страница становится канонической для последующих копий и возвращается null
+    synchronized Entry claim(long simHash, String path) {
+        if (maxDistance < 0) {
+            return null;
+        }
+        for (int band = 0; band < bands; band++) {
+            List<Entry> bucket = buckets.get(bucketKey(simHash, band));
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry entry : bucket) {
+                if (SimHash.distance(entry.simHash, simHash) <= maxDistance) {
+                    return entry;
+                }
+            }
+        }
+        add(simHash, path);
+        return null;
+    }
+    synchronized void add(long simHash, String path) {
+        if (maxDistance < 0) {
+            return;
+        }
+        Entry entry = new Entry(simHash, path);
+        for (int band = 0; band < bands; band++) {
+            buckets.computeIfAbsent(bucketKey(simHash, band), key -> new ArrayList<>(2)).add(entry);
+        }
+        size++;
+    }
+    synchronized int size() {
+        return size;
+    }
+    // Последняя полоса забирает оставшиеся биты; номер полосы подмешивается, чтобы полосы не делили корзины
+    private long bucketKey(long simHash, int band) {
+        int from = band * bandBits;
+        int width = band == bands - 1 ? 64 - from : bandBits;
+        long value = width == 64 ? simHash : (simHash >>> from) & ((1L << width) - 1);
+        return value ^ (band * 0x9e3779b97f4a7c15L);
+    }
+    static class Entry {
+        final long simHash;
+        final String path;
+        Entry(long simHash, String path) {
+            this.simHash = simHash;
+            this.path = path;
+        }
+    }
+}
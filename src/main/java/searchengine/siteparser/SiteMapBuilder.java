@@ -3,19 +3,22 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import searchengine.config.CrawlerConfig;
+import searchengine.contentstore.ContentStore;
 import searchengine.model.Site;
 import searchengine.model.Status;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.PageIndexRepository;
+import searchengine.repository.IndexBatchRepository;
 import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 import searchengine.services.LemmaFinder;
 import searchengine.services.PageProcessingService;
+import searchengine.services.SiteLemmaDictionary;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 @Component
 @RequiredArgsConstructor
@@ -24,28 +27,77 @@ public class SiteMapBuilder {
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
     private final CrawlerConfig crawlerConfig;
-    private final LemmaRepository lemmaRepository;
-    private final PageIndexRepository pageIndexRepository;
     private final LemmaFinder lemmaFinder;
     private final PageProcessingService pageProcessingService;
-    private final Map<Site, ForkJoinPool> runningPools = new ConcurrentHashMap<>();
-    private final Map<String, java.util.concurrent.ConcurrentHashMap.KeySetView<String, Boolean>> visitedBySite = new ConcurrentHashMap<>();
-    private final java.util.concurrent.ConcurrentHashMap<Site, AtomicInteger> sitePageCounters = new ConcurrentHashMap<>();
-    public List<String> build(Site site) {
-        List<String> urls = new ArrayList<>();
+    private final IndexBatchRepository indexBatchRepository;
+    private final PolitenessScheduler politenessScheduler;
+    private final PageFetcher pageFetcher;
+    private final CrawlPipeline crawlPipeline;
+    private final ContentStore contentStore;
+    private final CrawlGovernor crawlGovernor;
+    private final CrawlSeeder crawlSeeder;
+    private final Map<Site, CrawlSession> runningSessions = new ConcurrentHashMap<>();
+    // Id теневого поколения, для которого на диске остался журнал прерванного обхода
+    public Long findResumableSiteId(String siteUrl) {
+        try {
+            return CrawlJournal.readSiteId(CrawlJournal.pathFor(crawlerConfig.getFrontierDirectory(), siteUrl));
+        } catch (IOException e) {
+            log.warn("Cannot read crawl journal for {}: {}", siteUrl, e.getMessage());
+            return null;
+        }
+    }
+    // Поколение, которое сейчас обходится: его леммы и частоты ведёт словарь сессии, писать в него в обход нельзя
+    public boolean isCrawling(long siteId) {
+        return runningSessions.keySet().stream().anyMatch(site -> site.getId() == siteId);
+    }
+    public void build(Site site, boolean resume) {
         String siteUrl = site.getUrl();
         log.info("Starting crawl for site: {}", siteUrl);
-        visitedBySite.putIfAbsent(siteUrl, ConcurrentHashMap.newKeySet());
-        java.util.concurrent.ConcurrentHashMap.KeySetView<String, Boolean> visitedSet =
-                visitedBySite.get(siteUrl);
-        ForkJoinPool pool = new ForkJoinPool();
-        runningPools.put(site, pool);
-        LinkParser parserTask = new LinkParser(siteUrl, site.getId(), siteRepository, pageRepository, crawlerConfig,
-                pageProcessingService, pageIndexRepository, lemmaFinder, visitedSet, sitePageCounters);
-        pool.invoke(parserTask);
-        runningPools.remove(site);
-        visitedBySite.remove(siteUrl);
-        sitePageCounters.remove(site);
+        SiteLemmaDictionary lemmaDictionary = new SiteLemmaDictionary(site.getId(), indexBatchRepository);
+        LinkParser.Context context = new LinkParser.Context(siteRepository, pageRepository, pageProcessingService,
+                lemmaFinder, indexBatchRepository, contentStore, politenessScheduler, pageFetcher, crawlPipeline,
+                crawlGovernor, crawlerConfig);
+        Site active = siteRepository.findByUrlAndActiveTrue(siteUrl);
+        Long previousSiteId = active != null && !active.getId().equals(site.getId()) ? active.getId() : null;
+        CrawlSession session = new CrawlSession(site, lemmaDictionary, context, previousSiteId);
+        boolean restored = resume && session.restore();
+        if (!restored) {
+            session.deleteJournal();
+        }
+        session.excludeSkippedUrls();
+        runningSessions.put(site, session);
+        crawlGovernor.register(session);
+        long startedAt = System.nanoTime();
+        try {
+            RobotsRules robotsRules = crawlSeeder.loadRobots(siteUrl);
+            session.setRobotsRules(robotsRules);
+            // Продолженный обход уже содержит адреса sitemap в восстановленной очереди
+            session.start(!restored);
+            if (!restored) {
+                try {
+                    crawlSeeder.seed(session, robotsRules);
+                } finally {
+                    session.finishSeeding();
+                }
+            }
+            session.awaitCompletion();
+        } finally {
+            crawlGovernor.unregister(session);
+            session.close();
+            politenessScheduler.removeHost(siteUrl);
+            lemmaDictionary.flush();
+            int removed = indexBatchRepository.deleteUnusedLemmas(site.getId());
+            log.info("Lemma dictionary for site {}: {} lemmas, {} unused removed", siteUrl, lemmaDictionary.size(), removed);
+        }
+        logThroughput(siteUrl, session.getPageCounter(), System.nanoTime() - startedAt);
+        log.info("Unchanged pages copied from the previous generation of {}: {}", siteUrl, session.getUnchangedCounter().get());
+        log.info("Near-duplicate pages of {} stored as aliases: {}", siteUrl, session.getAliasCounter().get());
+        runningSessions.remove(site);
+        if (session.isStopped()) {
+            log.warn("Crawl for site {} stopped, journal kept for resume", siteUrl);
+            return;
+        }
+        session.deleteJournal();
         if (site.getStatus() != Status.FAILED) {
             site.setStatus(Status.INDEXED);
             site.setStatusTime(LocalDateTime.now());
@@ -55,21 +107,33 @@ public class SiteMapBuilder {
         } else {
             log.warn("Finished crawl for site: {} (FAILED). Error: {}", siteUrl, site.getLastError());
         }
-        return urls;
+    }
+    private void logThroughput(String siteUrl, AtomicInteger counter, long elapsedNanos) {
+        int pages = counter.get();
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        log.info("Crawl throughput for site {}: {} pages in {} s ({} pages/s)", siteUrl, pages,
+                String.format("%.1f", seconds), String.format("%.2f", seconds > 0 ? pages / seconds : 0));
     }
     public void stopAll() {
-        for (Map.Entry<Site, ForkJoinPool> entry : runningPools.entrySet()) {
+        stopAll("Индексация остановлена пользователем");
+    }
+    // При остановке приложения обход тоже дописывает журнал, чтобы его можно было продолжить после рестарта
+    @PreDestroy
+    public void shutdown() {
+        List<CrawlSession> sessions = new ArrayList<>(runningSessions.values());
+        stopAll("Индексация прервана остановкой приложения");
+        sessions.forEach(session -> session.awaitStopped(crawlerConfig.getFetchTimeoutMs()));
+    }
+    private void stopAll(String reason) {
+        for (Map.Entry<Site, CrawlSession> entry : runningSessions.entrySet()) {
             Site site = entry.getKey();
-            ForkJoinPool pool = entry.getValue();
-            log.info("Shutting down crawl pool for site {}", site.getUrl());
-            pool.shutdownNow();
+            log.info("Stopping crawl for site {}", site.getUrl());
             site.setStatus(Status.FAILED);
             site.setStatusTime(LocalDateTime.now());
-            site.setLastError("Индексация остановлена пользователем");
+            site.setLastError(reason);
+            entry.getValue().stop();
             siteRepository.save(site);
         }
-        runningPools.clear();
-        visitedBySite.clear();
-        sitePageCounters.clear();
+        runningSessions.clear();
     }
 }
@@ -0,0 +1,119 @@
+package searchengine.siteparser;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.zip.GZIPInputStream;
+// Потоковый разбор sitemap и sitemap index через StAX: файл не собирается в памяти целиком.
+// Сжатый gzip файл (.xml.gz) узнаётся по сигнатуре
+public final class SitemapParser {
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    }
+    private SitemapParser() {
+    }
+    // lastmod — миллисекунды эпохи или null, если дата не указана или не разобрана
+    public interface Listener {
+        void url(String loc, Long lastmod);
+        void sitemap(String loc);
+    }
+    public static void parse(InputStream input, Listener listener) throws IOException {
+        InputStream in = new BufferedInputStream(input);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+            try {
+                read(reader, listener);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // Ошибка чтения (срок или предел размера) передаётся как есть, а не как ошибка разметки
+            if (e.getNestedException() instanceof IOException) {
+                throw (IOException) e.getNestedException();
+            }
+            throw new IOException("Malformed sitemap: " + e.getMessage(), e);
+        }
+    }
+    private static void read(XMLStreamReader reader, Listener listener) throws XMLStreamException {
+        boolean inUrl = false;
+        boolean inSitemap = false;
+        String loc = null;
+        String lastmod = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = localName(reader.getLocalName());
+                switch (name) {
+                    case "url":
+                        inUrl = true;
+                        loc = null;
+                        lastmod = null;
+                        break;
+                    case "sitemap":
+                        inSitemap = true;
+                        loc = null;
+                        break;
+                    case "loc":
+                        loc = reader.getElementText().trim();
+                        break;
+                    case "lastmod":
+                        lastmod = reader.getElementText().trim();
+                        break;
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = localName(reader.getLocalName());
+                if (name.equals("url") && inUrl) {
+                    if (loc != null && !loc.isEmpty()) {
+                        listener.url(loc, parseLastmod(lastmod));
+                    }
+                    inUrl = false;
+                } else if (name.equals("sitemap") && inSitemap) {
+                    if (loc != null && !loc.isEmpty()) {
+                        listener.sitemap(loc);
+                    }
+                    inSitemap = false;
+                }
+            }
+        }
+    }
+    // Без учёта пространств имён префикс остаётся в имени элемента
+    private static String localName(String name) {
+        int colon = name.indexOf(':');
+        return colon >= 0 ? name.substring(colon + 1) : name;
+    }
+    // Формат W3C Datetime: дата или дата со временем и зоной
+    static Long parseLastmod(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDate.parse(value.length() >= 10 ? value.substring(0, 10) : value)
+                        .atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package searchengine.siteparser;
+import searchengine.dto.crawler.StageStatistics;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+// Счётчики стадии: всего обработано, суммарное время и скорость за последнюю минуту по секундным корзинам
+class StageMeter {
+    private static final int WINDOW_SECONDS = 60;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+    void record(long elapsedNanos) {
+        completed.increment();
+        busyNanos.add(elapsedNanos);
+        long now = System.currentTimeMillis() / 1000;
+        int slot = (int) (now % WINDOW_SECONDS);
+        long stamp = seconds.get(slot);
+        if (stamp != now && seconds.compareAndSet(slot, stamp, now)) {
+            counts.set(slot, 0);
+        }
+        counts.incrementAndGet(slot);
+    }
+    void fill(StageStatistics statistics) {
+        long done = completed.sum();
+        statistics.setCompleted(done);
+        statistics.setAvgTimeMs(done > 0 ? busyNanos.sum() / 1_000_000.0 / done : 0);
+        // Текущая, ещё не закончившаяся секунда в скорость не входит
+        long now = System.currentTimeMillis() / 1000;
+        long recent = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long stamp = seconds.get(i);
+            if (stamp < now && now - stamp < WINDOW_SECONDS) {
+                recent += counts.get(i);
+            }
+        }
+        statistics.setThroughput(recent / (double) (WINDOW_SECONDS - 1));
+    }
+}
@@ -0,0 +1,118 @@
+package searchengine.siteparser;
+import lombok.extern.slf4j.Slf4j;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+// Приведение адресов к одному виду, чтобы варианты записи одной страницы не обходились повторно
+@Slf4j
+public final class UrlNormalizer {
+    // Символы, которые браузеры терпят в ссылках, а URI — нет
+    private static final String ILLEGAL_CHARS = " \"<>\\^`{|}";
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private UrlNormalizer() {
+    }
+    // Схема и хост в нижнем регистре, без порта по умолчанию, фрагмента и пустого query,
+    // точки в пути раскрыты, повторные слэши схлопнуты, параметры запроса отсортированы.
+    // Для адресов, которые нельзя загрузить по http(s), возвращает null
+    public static String normalize(String url) {
+        if (url == null || url.isBlank()) {
+            return null;
+        }
+        URI uri;
+        try {
+            uri = new URI(encodeIllegalChars(url.trim())).normalize();
+        } catch (URISyntaxException e) {
+            log.debug("Dropping malformed URL {}: {}", url, e.getMessage());
+            return null;
+        }
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (scheme == null || host == null) {
+            return null;
+        }
+        scheme = scheme.toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(url.length()).append(scheme).append("://")
+                .append(host.toLowerCase(Locale.ROOT));
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+            result.append(':').append(port);
+        }
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        result.append(path.replaceAll("/{2,}", "/"));
+        String query = uri.getRawQuery();
+        if (query != null) {
+            String[] params = Arrays.stream(query.split("&")).filter(p -> !p.isEmpty()).sorted().toArray(String[]::new);
+            if (params.length > 0) {
+                result.append('?').append(String.join("&", params));
+            }
+        }
+        return result.toString();
+    }
+    // Путь с query относительно сайта, с ведущим слэшем: оба адреса нормализованы, адрес сайта отрезается как префикс
+    public static String relativePath(String normalizedSiteUrl, String normalizedUrl) {
+        String prefix = normalizedSiteUrl.endsWith("/")
+                ? normalizedSiteUrl.substring(0, normalizedSiteUrl.length() - 1) : normalizedSiteUrl;
+        if (!normalizedUrl.startsWith(prefix)) {
+            return normalizedUrl;
+        }
+        String path = normalizedUrl.substring(prefix.length());
+        return path.isEmpty() ? "/" : path;
+    }
+    // Недопустимые символы и знак процента, за которым не идёт код, кодируются как %XX; фрагмент не трогается
+    private static String encodeIllegalChars(String url) {
+        StringBuilder result = null;
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            boolean illegal = ILLEGAL_CHARS.indexOf(c) >= 0 || (c == '%' && !isEscape(url, i));
+            if (illegal && result == null) {
+                result = new StringBuilder(url.length() + 16).append(url, 0, i);
+            }
+            if (illegal) {
+                result.append('%').append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            } else if (result != null) {
+                result.append(c);
+            }
+        }
+        return result != null ? result.toString() : url;
+    }
+    private static boolean isEscape(String url, int percent) {
+        return percent + 2 < url.length() && Character.digit(url.charAt(percent + 1), 16) >= 0
+                && Character.digit(url.charAt(percent + 2), 16) >= 0;
+    }
+    // Расширение последнего сегмента пути в нижнем регистре, без точки; пустая строка, если его нет
+    public static String extension(String normalizedUrl) {
+        int end = normalizedUrl.indexOf('?');
+        String path = end < 0 ? normalizedUrl : normalizedUrl.substring(0, end);
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash && slash > path.indexOf("://") + 2 ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+    // 64-битный отпечаток нормализованного адреса; завершающий слэш в пути не различается
+    public static long fingerprint(String normalizedUrl) {
+        int end = normalizedUrl.indexOf('?');
+        int pathEnd = end < 0 ? normalizedUrl.length() : end;
+        int schemeEnd = normalizedUrl.indexOf("://") + 3;
+        int pathStart = normalizedUrl.indexOf('/', schemeEnd);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalizedUrl.length(); i++) {
+            if (i == pathEnd - 1 && normalizedUrl.charAt(i) == '/' && i > pathStart) {
+                continue;
+            }
+            hash = (hash ^ normalizedUrl.charAt(i)) * 0x100000001b3L;
+        }
+        // Финальное перемешивание из MurmurHash3, чтобы младшие биты годились для открытой адресации
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,92 @@
+package searchengine.siteparser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import searchengine.config.CrawlerConfig;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+// PageFetcher против локального HttpServer: условный запрос, редирект и предел размера тела
+class PageFetcherTest {
+    private static final String ETAG = "\"v1\"";
+    private static final int MAX_BODY_SIZE = 1024;
+    private HttpServer server;
+    private PageFetcher pageFetcher;
+    private String baseUrl;
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/page", exchange -> {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            respond(exchange, "<html><body>Страница</body></html>");
+        });
+        server.createContext("/old", exchange -> {
+            exchange.getResponseHeaders().set("Location", "/page");
+            exchange.sendResponseHeaders(301, -1);
+            exchange.close();
+        });
+        // Длина не объявлена заранее: предел срабатывает по ходу загрузки
+        server.createContext("/large", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(new byte[MAX_BODY_SIZE * 4]);
+            } catch (IOException e) {
+                // клиент оборвал загрузку
+            }
+        });
+        server.start();
+        baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        CrawlerConfig crawlerConfig = new CrawlerConfig();
+        crawlerConfig.setMaxBodySize(MAX_BODY_SIZE);
+        pageFetcher = new PageFetcher(crawlerConfig);
+    }
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+    @Test
+    void conditionalRequestReturnsNotModified() throws Exception {
+        FetchedPage first = pageFetcher.fetch(baseUrl + "/page").get();
+        assertEquals(200, first.getStatusCode());
+        assertEquals(ETAG, first.getEtag());
+        assertTrue(first.getBody().contains("Страница"));
+        PageVersion previous = new PageVersion(1L, 200, first.getEtag(), null, null, null);
+        FetchedPage second = pageFetcher.fetch(baseUrl + "/page", previous).get();
+        assertEquals(304, second.getStatusCode());
+        assertTrue(second.isNotModified());
+        assertEquals(ETAG, second.getEtag());
+    }
+    @Test
+    void redirectReportsFinalUrl() throws Exception {
+        FetchedPage page = pageFetcher.fetch(baseUrl + "/old").get();
+        assertEquals(200, page.getStatusCode());
+        assertEquals(baseUrl + "/page", page.getUrl());
+    }
+    @Test
+    void bodyOverLimitIsSkipped() throws Exception {
+        FetchedPage page = pageFetcher.fetch(baseUrl + "/large").get();
+        assertTrue(page.isSkipped());
+        assertNull(page.getBody());
+        assertTrue(page.getSkipReason().contains(String.valueOf(MAX_BODY_SIZE)));
+    }
+    private static void respond(HttpExchange exchange, String html) throws IOException {
+        byte[] body = html.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}